@@ -0,0 +1,39 @@
+package dev.xernas.particle.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AcceptBenchmark {
+
+    private int port;
+    private Loopback.EchoServer server;
+
+    @Setup
+    public void setup() throws Exception {
+        port = Loopback.freePort();
+        server = new Loopback.EchoServer(port, false);
+        Loopback.start("benchmark-server", server::listen);
+        Loopback.await(server::isRunning);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Loopback.stop(server, port);
+    }
+
+    @Benchmark
+    public boolean connectAndClose() throws Exception {
+        try (Socket socket = new Socket(Loopback.HOST, port)) {
+            return socket.isConnected();
+        }
+    }
+
+}
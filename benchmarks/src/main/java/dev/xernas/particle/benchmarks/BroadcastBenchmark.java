@@ -0,0 +1,59 @@
+package dev.xernas.particle.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"1", "16", "64"})
+    public int sessions;
+
+    private int port;
+    private Loopback.EchoServer server;
+    private final List<Socket> sockets = new ArrayList<>();
+    private final String message = "tick=1;x=1;y=2;z=3";
+
+    @Setup
+    public void setup() throws Exception {
+        port = Loopback.freePort();
+        server = new Loopback.EchoServer(port, false);
+        Loopback.start("benchmark-server", server::listen);
+        Loopback.await(server::isRunning);
+
+        for (int i = 0; i < sessions; i++) {
+            Socket socket = new Socket(Loopback.HOST, port);
+            sockets.add(socket);
+            InputStream in = socket.getInputStream();
+            Loopback.start("benchmark-drain-" + i, () -> {
+                byte[] drain = new byte[65536];
+                while (in.read(drain) != -1) {
+                    // Discard broadcast data
+                }
+            });
+        }
+        Loopback.await(() -> server.getConnectedClients().size() == sessions);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (Socket socket : sockets) socket.close();
+        Loopback.stop(server, port);
+    }
+
+    @Benchmark
+    public void broadcast() throws Exception {
+        server.broadcast(message);
+    }
+
+}
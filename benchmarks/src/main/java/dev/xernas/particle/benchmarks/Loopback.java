@@ -0,0 +1,278 @@
+package dev.xernas.particle.benchmarks;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.client.Client;
+import dev.xernas.particle.client.TCPClient;
+import dev.xernas.particle.client.UDPClient;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.message.StringMessageIO;
+import dev.xernas.particle.server.TCPServer;
+import dev.xernas.particle.server.UDPServer;
+import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.tasks.Task;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public final class Loopback {
+
+    public static final String HOST = "127.0.0.1";
+
+    private Loopback() {
+    }
+
+    public static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static int freeUdpPort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static Thread start(String name, ThrowingRunnable runnable) {
+        Thread thread = new Thread(() -> {
+            try {
+                runnable.run();
+            } catch (Exception ignore) {}
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    public static void await(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("Timed out waiting for loopback");
+            Thread.sleep(5);
+        }
+    }
+
+    public static void stop(TCPServer<?, ?> server, int port) {
+        server.stop();
+        // Unblock the accept loop
+        try (Socket ignored = new Socket(HOST, port)) {
+        } catch (IOException ignore) {}
+    }
+
+    public static void stop(UDPServer<?, ?> server) {
+        server.stop();
+    }
+
+    public interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    public static class EchoServer extends TCPServer<String, String> {
+
+        private final int port;
+        private final boolean echo;
+
+        public EchoServer(int port, boolean echo) {
+            this.port = port;
+            this.echo = echo;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public MessageIO<String, String> getMessageIO(UUID clientId) {
+            return new StringMessageIO();
+        }
+
+        @Override
+        public void onServerStart() {
+        }
+
+        @Override
+        public void onClientConnect(UUID clientId, Particle particle) {
+        }
+
+        @Override
+        public void onMessage(UUID clientId, String message, Particle particle) throws ServerException {
+            // Pings arrive as empty strings
+            if (echo && !message.isEmpty()) send(clientId, message);
+        }
+
+        @Override
+        public void onClientDisconnect(UUID clientId, Particle particle) {
+        }
+
+        @Override
+        public void onClientConnectionEnd(UUID clientId, Client<String, String> disconnectedClient) {
+        }
+
+        @Override
+        public void onServerStop() {
+        }
+
+    }
+
+    public static class EchoClient extends TCPClient<String, String> {
+
+        private final int port;
+        private final BlockingQueue<String> replies = new ArrayBlockingQueue<>(1024);
+
+        public EchoClient(int port) {
+            this.port = port;
+        }
+
+        public String awaitReply() throws InterruptedException {
+            return replies.take();
+        }
+
+        @Override
+        public String getHost() {
+            return HOST;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public @NotNull MessageIO<String, String> getMessageIO() {
+            return new StringMessageIO();
+        }
+
+        @Override
+        public void onConnect(Particle particle) {
+        }
+
+        @Override
+        public void onMessage(String message, Particle particle) {
+            if (!message.isEmpty()) replies.offer(message);
+        }
+
+        @Override
+        public void onDisconnect() {
+        }
+
+    }
+
+    public static class UDPEchoServer extends UDPServer<String, String> {
+
+        private final int port;
+
+        public UDPEchoServer(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public MessageIO<String, String> getMessageIO(UUID clientId) {
+            return new StringMessageIO();
+        }
+
+        @Override
+        public void onServerStart() {
+        }
+
+        @Override
+        public void onClientConnect(UUID clientId, Particle particle) {
+        }
+
+        @Override
+        public void onMessage(UUID clientId, String message, Particle particle) throws ServerException {
+            send(clientId, message);
+        }
+
+        @Override
+        public void onClientDisconnect(UUID clientId, Particle particle) {
+        }
+
+        @Override
+        public void onClientConnectionEnd(UUID clientId, Client<String, String> disconnectedClient) {
+        }
+
+        @Override
+        public void onServerStop() {
+        }
+
+    }
+
+    public static class UDPEchoClient extends UDPClient<String, String> {
+
+        private final int port;
+        private final BlockingQueue<String> replies = new ArrayBlockingQueue<>(1024);
+
+        public UDPEchoClient(int port) {
+            this.port = port;
+        }
+
+        // Null if the datagram or its echo was lost
+        public String awaitReply() throws InterruptedException {
+            return replies.poll(1, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public String getHost() {
+            return HOST;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public @NotNull MessageIO<String, String> getMessageIO() {
+            return new StringMessageIO();
+        }
+
+        @Override
+        public void onConnect(Particle particle) {
+        }
+
+        @Override
+        public void onMessage(String message, Particle particle) {
+            replies.offer(message);
+        }
+
+        @Override
+        public void onDisconnect() {
+        }
+
+    }
+
+}
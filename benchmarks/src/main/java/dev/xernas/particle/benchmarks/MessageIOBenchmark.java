@@ -0,0 +1,54 @@
+package dev.xernas.particle.benchmarks;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.message.DeltaMessageIO;
+import dev.xernas.particle.message.StringMessageIO;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageIOBenchmark {
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+    private final StringMessageIO stringIO = new StringMessageIO();
+    private DeltaMessageIO<String> deltaWriter;
+    private DeltaMessageIO<String> deltaReader;
+    private Particle writer;
+    private String snapshot;
+    private int tick = 0;
+
+    @Setup
+    public void setup() {
+        writer = new Particle(new DataOutputStream(buffer));
+        deltaWriter = new DeltaMessageIO<>(new StringMessageIO());
+        deltaReader = new DeltaMessageIO<>(new StringMessageIO());
+        snapshot = "entity=42;x=1024;y=2048;z=64;yaw=90;pitch=0;health=20;name=benchmark;tick=";
+    }
+
+    @Benchmark
+    public String stringRoundTrip() throws Exception {
+        buffer.reset();
+        stringIO.write(snapshot, writer);
+        return stringIO.read(new Particle(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()))));
+    }
+
+    @Benchmark
+    public String deltaRoundTrip() throws Exception {
+        buffer.reset();
+        deltaWriter.write(snapshot + (tick++ & 0xFF), writer);
+        String decoded = deltaReader.read(new Particle(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()))));
+        deltaWriter.acknowledge(deltaReader.getLastReceivedSequence());
+        return decoded;
+    }
+
+}
@@ -0,0 +1,70 @@
+package dev.xernas.particle.benchmarks;
+
+import dev.xernas.particle.Particle;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticleBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int stringLength;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+    private Particle writer;
+    private String string;
+    private byte[] encodedPrimitives;
+    private byte[] encodedString;
+
+    @Setup
+    public void setup() throws Exception {
+        writer = new Particle(new DataOutputStream(buffer));
+        string = "x".repeat(stringLength);
+
+        writePrimitives();
+        encodedPrimitives = buffer.toByteArray();
+        buffer.reset();
+        writer.writeString(string);
+        encodedString = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public int writePrimitives() throws Exception {
+        buffer.reset();
+        writer.writeInt(42);
+        writer.writeLong(42L);
+        writer.writeShort((short) 42);
+        writer.writeBoolean(true);
+        writer.writeVarInt(300);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public long readPrimitives() throws Exception {
+        Particle reader = new Particle(new DataInputStream(new ByteArrayInputStream(encodedPrimitives)));
+        return reader.readInt() + reader.readLong() + reader.readShort() + (reader.readBoolean() ? 1 : 0) + reader.readVarInt();
+    }
+
+    @Benchmark
+    public int writeString() throws Exception {
+        buffer.reset();
+        writer.writeString(string);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public String readString() throws Exception {
+        return new Particle(new DataInputStream(new ByteArrayInputStream(encodedString))).readString();
+    }
+
+}
@@ -0,0 +1,48 @@
+package dev.xernas.particle.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TCPLoopbackBenchmark {
+
+    @Param({"32", "1024"})
+    public int messageLength;
+
+    private int port;
+    private Loopback.EchoServer server;
+    private Loopback.EchoClient client;
+    private String message;
+
+    @Setup
+    public void setup() throws Exception {
+        port = Loopback.freePort();
+        server = new Loopback.EchoServer(port, true);
+        Loopback.start("benchmark-server", server::listen);
+        Loopback.await(server::isRunning);
+
+        client = new Loopback.EchoClient(port);
+        Loopback.start("benchmark-client", client::connect);
+        Loopback.await(() -> server.getConnectedClients().size() == 1);
+        message = "m".repeat(messageLength);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.disconnect();
+        Loopback.stop(server, port);
+    }
+
+    @Benchmark
+    public String roundTrip() throws Exception {
+        client.send(message);
+        return client.awaitReply();
+    }
+
+}
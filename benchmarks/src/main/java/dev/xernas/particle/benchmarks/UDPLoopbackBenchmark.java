@@ -0,0 +1,50 @@
+package dev.xernas.particle.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// UDPClient.send through UDPServer's receive loop to onMessage and back. Without aggregation both ends receive into
+// 1024 byte buffers, so messages stay below that.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UDPLoopbackBenchmark {
+
+    @Param({"32", "512"})
+    public int messageLength;
+
+    private Loopback.UDPEchoServer server;
+    private Loopback.UDPEchoClient client;
+    private String message;
+
+    @Setup
+    public void setup() throws Exception {
+        int port = Loopback.freeUdpPort();
+        server = new Loopback.UDPEchoServer(port);
+        Loopback.start("benchmark-server", server::listen);
+        Loopback.await(server::isRunning);
+
+        client = new Loopback.UDPEchoClient(port);
+        Loopback.start("benchmark-client", client::connect);
+        // The connect ping opens the session
+        Loopback.await(() -> server.getConnectedClients().size() == 1);
+        message = "m".repeat(messageLength);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.disconnect();
+        Loopback.stop(server);
+    }
+
+    @Benchmark
+    public String roundTrip() throws Exception {
+        client.send(message);
+        return client.awaitReply();
+    }
+
+}
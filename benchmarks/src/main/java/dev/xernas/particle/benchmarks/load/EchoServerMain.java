@@ -0,0 +1,15 @@
+package dev.xernas.particle.benchmarks.load;
+
+import dev.xernas.particle.benchmarks.Loopback;
+
+// Target for LoadGenerator: a TCPServer echoing every StringMessageIO message back
+public class EchoServerMain {
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 25565;
+        Loopback.EchoServer server = new Loopback.EchoServer(port, true);
+        server.enableMetrics("echo").registerMBean();
+        server.listen();
+    }
+
+}
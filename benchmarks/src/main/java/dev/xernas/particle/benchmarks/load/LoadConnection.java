@@ -0,0 +1,70 @@
+package dev.xernas.particle.benchmarks.load;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+final class LoadConnection {
+
+    private static final int SEQUENCE_SLOTS = 256;
+
+    final SelectableChannel channel;
+    final ByteBuffer readBuffer = ByteBuffer.allocate(65536 + 2);
+    final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+    // Intended send times of messages still waiting for their echo
+    long[] inFlight = new long[16];
+    int inFlightHead = 0;
+    int inFlightSize = 0;
+    // UDP echoes can be lost or reordered, so their send times are matched by the sequence number in the payload
+    long nextSequence = 0;
+    private long[] sequences;
+    private long[] sentAt;
+    long nextSendNanos;
+    boolean connected = false;
+
+    LoadConnection(SelectableChannel channel, long nextSendNanos) {
+        this.channel = channel;
+        this.nextSendNanos = nextSendNanos;
+    }
+
+    void pushInFlight(long intendedNanos) {
+        if (inFlightSize == inFlight.length) {
+            long[] grown = new long[inFlight.length * 2];
+            for (int i = 0; i < inFlightSize; i++) grown[i] = inFlight[(inFlightHead + i) % inFlight.length];
+            inFlight = grown;
+            inFlightHead = 0;
+        }
+        inFlight[(inFlightHead + inFlightSize) % inFlight.length] = intendedNanos;
+        inFlightSize++;
+    }
+
+    long popInFlight() {
+        if (inFlightSize == 0) return -1;
+        long intended = inFlight[inFlightHead];
+        inFlightHead = (inFlightHead + 1) % inFlight.length;
+        inFlightSize--;
+        return intended;
+    }
+
+    void pushSequence(long sequence, long intendedNanos) {
+        if (sequences == null) {
+            sequences = new long[SEQUENCE_SLOTS];
+            sentAt = new long[SEQUENCE_SLOTS];
+            Arrays.fill(sequences, -1);
+        }
+        int slot = (int) (sequence & (SEQUENCE_SLOTS - 1));
+        // A slot still holding an older sequence means that echo was lost
+        sequences[slot] = sequence;
+        sentAt[slot] = intendedNanos;
+    }
+
+    long popSequence(long sequence) {
+        if (sequences == null || sequence < 0) return -1;
+        int slot = (int) (sequence & (SEQUENCE_SLOTS - 1));
+        if (sequences[slot] != sequence) return -1;
+        sequences[slot] = -1;
+        return sentAt[slot];
+    }
+
+}
@@ -0,0 +1,62 @@
+package dev.xernas.particle.benchmarks.load;
+
+import dev.xernas.particle.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Opens many lightweight NIO connections against a Particle server and records echo latency
+ * measured from each message's intended send time (coordinated-omission corrected). UDP echoes are matched
+ * by a sequence number stamped into the payload, lost datagrams are sent but never received.
+ *
+ *   java -cp target/benchmarks.jar dev.xernas.particle.benchmarks.load.LoadGenerator \
+ *       --port 25565 --connections 20000 --threads 4 --rate 5 --duration 60 --mix 32:80,512:15,4096:5
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options = LoadOptions.parse(args);
+        Histogram latency = new Histogram();
+        LongAdder sent = new LongAdder();
+        LongAdder received = new LongAdder();
+        LongAdder errors = new LongAdder();
+
+        List<LoadWorker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < options.threads(); i++) {
+            int share = options.connections() / options.threads() + (i < options.connections() % options.threads() ? 1 : 0);
+            LoadWorker worker = new LoadWorker(options, share, latency, sent, received, errors);
+            Thread thread = new Thread(worker, "load-worker-" + i);
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+
+        System.out.printf("Driving %d %s connections at %.1f msg/s each for %ds%n",
+                options.connections(), options.udp() ? "UDP" : "TCP", options.ratePerConnection(), options.durationSeconds());
+
+        long lastSent = 0;
+        long lastReceived = 0;
+        for (int second = 1; second <= options.durationSeconds(); second++) {
+            Thread.sleep(1000);
+            long totalSent = sent.sum();
+            long totalReceived = received.sum();
+            System.out.printf("[%3ds] sent %,d/s received %,d/s p99 %,dus errors %d%n",
+                    second, totalSent - lastSent, totalReceived - lastReceived, latency.getPercentile(99) / 1000, errors.sum());
+            lastSent = totalSent;
+            lastReceived = totalReceived;
+        }
+
+        workers.forEach(LoadWorker::stop);
+        for (Thread thread : threads) thread.join();
+
+        System.out.printf("Total sent %,d received %,d errors %d (%.0f msg/s)%n",
+                sent.sum(), received.sum(), errors.sum(), (double) sent.sum() / options.durationSeconds());
+        System.out.printf("Latency us: p50 %,d p90 %,d p99 %,d p99.9 %,d max %,d%n",
+                latency.getPercentile(50) / 1000, latency.getPercentile(90) / 1000, latency.getPercentile(99) / 1000,
+                latency.getPercentile(99.9) / 1000, latency.getMax() / 1000);
+    }
+
+}
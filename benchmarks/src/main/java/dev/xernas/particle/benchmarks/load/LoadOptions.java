@@ -0,0 +1,65 @@
+package dev.xernas.particle.benchmarks.load;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public record LoadOptions(
+        String host,
+        int port,
+        boolean udp,
+        int connections,
+        int threads,
+        double ratePerConnection,
+        int durationSeconds,
+        List<MessageSize> mix
+) {
+
+    public static LoadOptions parse(String[] args) {
+        String host = "127.0.0.1";
+        int port = 25565;
+        boolean udp = false;
+        int connections = 1000;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        double rate = 10;
+        int duration = 30;
+        String mix = "32:80,512:15,4096:5";
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host" -> host = value;
+                case "--port" -> port = Integer.parseInt(value);
+                case "--protocol" -> udp = value.equalsIgnoreCase("udp");
+                case "--connections" -> connections = Integer.parseInt(value);
+                case "--threads" -> threads = Integer.parseInt(value);
+                case "--rate" -> rate = Double.parseDouble(value);
+                case "--duration" -> duration = Integer.parseInt(value);
+                case "--mix" -> mix = value;
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        // Pacing divides by the rate
+        if (!(rate > 0) || Double.isInfinite(rate)) throw new IllegalArgumentException("Rate must be a positive number of messages per second");
+        return new LoadOptions(host, port, udp, connections, threads, rate, duration, parseMix(mix));
+    }
+
+    // "size:weight,size:weight"
+    private static List<MessageSize> parseMix(String mix) {
+        List<MessageSize> sizes = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            int size = Integer.parseInt(parts[0].trim());
+            // A zero length frame is what a ping looks like on the wire
+            if (size < 1) throw new IllegalArgumentException("Message size must be at least one byte");
+            if (size > 65535) throw new IllegalArgumentException("Message size must fit in an unsigned short");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            if (weight < 1) throw new IllegalArgumentException("Message weight must be positive");
+            sizes.add(new MessageSize(size, weight));
+        }
+        return sizes;
+    }
+
+    public record MessageSize(int size, int weight) {
+    }
+
+}
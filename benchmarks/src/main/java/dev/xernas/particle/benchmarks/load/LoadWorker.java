@@ -0,0 +1,260 @@
+package dev.xernas.particle.benchmarks.load;
+
+import dev.xernas.particle.metrics.Histogram;
+import dev.xernas.particle.aggregation.DatagramAggregator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives a share of the connections from a single selector thread
+final class LoadWorker implements Runnable {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final LoadOptions options;
+    private final int connections;
+    private final Histogram latency;
+    private final LongAdder sent;
+    private final LongAdder received;
+    private final LongAdder errors;
+    private final long intervalNanos;
+    private final ByteBuffer[] payloads;
+    private final int[] cumulativeWeights;
+    private final ByteBuffer datagram = ByteBuffer.allocate(65536 + 2);
+
+    private volatile boolean running = true;
+
+    LoadWorker(LoadOptions options, int connections, Histogram latency, LongAdder sent, LongAdder received, LongAdder errors) {
+        this.options = options;
+        this.connections = connections;
+        this.latency = latency;
+        this.sent = sent;
+        this.received = received;
+        this.errors = errors;
+        this.intervalNanos = (long) (1_000_000_000L / options.ratePerConnection());
+        this.payloads = new ByteBuffer[options.mix().size()];
+        this.cumulativeWeights = new int[payloads.length];
+        int total = 0;
+        for (int i = 0; i < payloads.length; i++) {
+            LoadOptions.MessageSize size = options.mix().get(i);
+            // Same framing as StringMessageIO: unsigned short length followed by the bytes
+            ByteBuffer payload = ByteBuffer.allocate(2 + size.size());
+            payload.putShort((short) size.size());
+            while (payload.hasRemaining()) payload.put((byte) 'x');
+            payloads[i] = payload.flip().asReadOnlyBuffer();
+            total += size.weight();
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open()) {
+            PriorityQueue<LoadConnection> schedule = new PriorityQueue<>((a, b) -> Long.compare(a.nextSendNanos, b.nextSendNanos));
+            InetSocketAddress address = new InetSocketAddress(options.host(), options.port());
+            long start = System.nanoTime();
+            for (int i = 0; i < connections; i++) {
+                // Stagger first sends across one interval to avoid synchronized bursts
+                LoadConnection connection = open(selector, address, start + ThreadLocalRandom.current().nextLong(intervalNanos));
+                if (connection != null) schedule.add(connection);
+            }
+
+            while (running) {
+                long now = System.nanoTime();
+                while (!schedule.isEmpty() && schedule.peek().nextSendNanos <= now) {
+                    LoadConnection connection = schedule.poll();
+                    // Late sends keep their intended time so stalls show up as latency
+                    if (connection.connected) send(selector, connection, connection.nextSendNanos);
+                    if (!connection.channel.isOpen()) continue;
+                    connection.nextSendNanos += intervalNanos;
+                    schedule.add(connection);
+                }
+
+                long waitNanos = schedule.isEmpty() ? 10_000_000L : schedule.peek().nextSendNanos - System.nanoTime();
+                if (waitNanos > 1_000_000L) selector.select(waitNanos / 1_000_000L);
+                else selector.selectNow();
+
+                for (SelectionKey key : selector.selectedKeys()) handle(key);
+                selector.selectedKeys().clear();
+            }
+
+            for (SelectionKey key : selector.keys()) key.channel().close();
+        } catch (IOException e) {
+            errors.increment();
+        }
+    }
+
+    private LoadConnection open(Selector selector, InetSocketAddress address, long firstSend) {
+        try {
+            if (options.udp()) {
+                DatagramChannel channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                LoadConnection connection = new LoadConnection(channel, firstSend);
+                connection.connected = true;
+                channel.register(selector, SelectionKey.OP_READ, connection);
+                return connection;
+            }
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            LoadConnection connection = new LoadConnection(channel, firstSend);
+            if (channel.connect(address)) {
+                connection.connected = true;
+                channel.register(selector, SelectionKey.OP_READ, connection);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            }
+            return connection;
+        } catch (IOException e) {
+            errors.increment();
+            return null;
+        }
+    }
+
+    private void send(Selector selector, LoadConnection connection, long intendedNanos) {
+        ByteBuffer payload = nextPayload();
+        try {
+            if (options.udp()) {
+                long sequence = stamp(payload, connection.nextSequence++);
+                ((DatagramChannel) connection.channel).write(datagram);
+                connection.pushSequence(sequence, intendedNanos);
+            } else {
+                connection.pendingWrites.add(payload);
+                connection.pushInFlight(intendedNanos);
+                flush(selector, connection);
+            }
+            sent.increment();
+        } catch (IOException e) {
+            fail(connection);
+        }
+    }
+
+    private void flush(Selector selector, LoadConnection connection) throws IOException {
+        SocketChannel channel = (SocketChannel) connection.channel;
+        while (!connection.pendingWrites.isEmpty()) {
+            ByteBuffer buffer = connection.pendingWrites.peek();
+            channel.write(buffer);
+            if (buffer.hasRemaining()) break;
+            connection.pendingWrites.poll();
+        }
+        SelectionKey key = channel.keyFor(selector);
+        int ops = connection.pendingWrites.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        if (key.interestOps() != ops) key.interestOps(ops);
+    }
+
+    private void handle(SelectionKey key) {
+        LoadConnection connection = (LoadConnection) key.attachment();
+        try {
+            if (!key.isValid()) return;
+            if (key.isConnectable()) {
+                ((SocketChannel) connection.channel).finishConnect();
+                connection.connected = true;
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            if (key.isWritable()) flush(key.selector(), connection);
+            if (key.isValid() && key.isReadable()) read(connection);
+        } catch (IOException e) {
+            fail(connection);
+        }
+    }
+
+    private void read(LoadConnection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        if (options.udp()) {
+            int length = ((DatagramChannel) connection.channel).read(buffer);
+            long now = System.nanoTime();
+            if (length > 0 && DatagramAggregator.isBatch(buffer.array(), 0, length)) {
+                List<byte[]> messages = DatagramAggregator.unpack(buffer.array(), 0, length);
+                for (byte[] message : messages) receive(connection, ByteBuffer.wrap(message), now);
+            } else if (length > 0) {
+                receive(connection, buffer.flip(), now);
+            }
+            buffer.clear();
+            return;
+        }
+
+        if (((SocketChannel) connection.channel).read(buffer) == -1) {
+            fail(connection);
+            return;
+        }
+        buffer.flip();
+        while (buffer.remaining() >= 2) {
+            int length = Short.toUnsignedInt(buffer.getShort(buffer.position()));
+            if (buffer.remaining() < 2 + length) break;
+            buffer.position(buffer.position() + 2 + length);
+            // Server pings decode as empty strings
+            if (length == 0) continue;
+            long intended = connection.popInFlight();
+            if (intended >= 0) latency.record(System.nanoTime() - intended);
+            received.increment();
+        }
+        buffer.compact();
+    }
+
+    private void receive(LoadConnection connection, ByteBuffer datagram, long now) {
+        while (datagram.remaining() >= 2) {
+            int length = Short.toUnsignedInt(datagram.getShort(datagram.position()));
+            if (datagram.remaining() < 2 + length) break;
+            int start = datagram.position() + 2;
+            datagram.position(start + length);
+            // Server pings read as empty strings
+            if (length == 0) continue;
+            long intended = connection.popSequence(parseSequence(datagram, start, Math.min(length, 16)));
+            if (intended >= 0) latency.record(now - intended);
+            received.increment();
+        }
+    }
+
+    // Writes the sequence as hex over the start of the payload, truncated to what fits, and returns the stamped value
+    private long stamp(ByteBuffer payload, long sequence) {
+        int digits = Math.min(payload.remaining() - 2, 16);
+        if (digits < 16) sequence &= (1L << 4 * digits) - 1;
+        datagram.clear();
+        datagram.put(payload).flip();
+        for (int i = 0; i < digits; i++) datagram.put(2 + i, HEX[(int) (sequence >>> 4 * (digits - 1 - i)) & 0xF]);
+        return sequence;
+    }
+
+    private static long parseSequence(ByteBuffer datagram, int start, int digits) {
+        long sequence = 0;
+        for (int i = 0; i < digits; i++) {
+            int digit = Character.digit(datagram.get(start + i), 16);
+            if (digit < 0) return -1;
+            sequence = sequence << 4 | digit;
+        }
+        return sequence;
+    }
+
+    private ByteBuffer nextPayload() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (pick < cumulativeWeights[i]) return payloads[i].duplicate();
+        }
+        return payloads[payloads.length - 1].duplicate();
+    }
+
+    private void fail(LoadConnection connection) {
+        errors.increment();
+        connection.connected = false;
+        try {
+            connection.channel.close();
+        } catch (IOException ignore) {}
+    }
+
+}
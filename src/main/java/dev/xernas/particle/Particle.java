@@ -97,6 +97,32 @@ public class Particle {
         }
     }
 
+    public void writeVarInt(int value) throws WriteException {
+        try {
+            while ((value & ~0x7F) != 0) {
+                out().writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out().writeByte(value);
+        } catch (Exception e) {
+            throw new WriteException("Failed to write varint", e);
+        }
+    }
+
+    public int readVarInt() throws ReadException {
+        try {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in().readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+        } catch (Exception e) {
+            throw new ReadException("Failed to read varint", e);
+        }
+        throw new ReadException("Varint is too long");
+    }
+
     public void writeString(String value) throws WriteException {
         try {
             out().writeUTF(value);
@@ -198,14 +224,8 @@ public class Particle {
 
     public byte[] readEveryBytes() throws ReadException {
         try {
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-            int bytesRead;
-            while ((bytesRead = in().read(buffer.array())) != -1) {
-                buffer.position(buffer.position() + bytesRead);
-            }
-            byte[] result = new byte[buffer.position()];
-            System.arraycopy(buffer.array(), 0, result, 0, buffer.position());
-            return result;
+            // Grows as needed, large payloads should be streamed instead
+            return in().readAllBytes();
         } catch (IOException e) {
             throw new ReadException("Failed to read every bytes", e);
         }
@@ -248,7 +268,7 @@ public class Particle {
     }
 
     public static void sendUDP(int data, DatagramSocket socket, Host to) throws WriteException {
-        ByteBuffer bytes = ByteBuffer.allocate(4).putInt(data);
+        ByteBuffer bytes = ByteBuffer.allocate(4).putInt(data).flip();
         sendUDP(bytes, socket, to);
     }
 
@@ -0,0 +1,218 @@
+package dev.xernas.particle.aggregation;
+
+import dev.xernas.particle.utils.Host;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Packs small messages per destination into one datagram: a magic byte, then a varint length before each message.
+// Both ends have to enable aggregation, a plain datagram starting with the magic byte would be taken for a batch.
+public class DatagramAggregator {
+
+    public static final byte MAGIC = (byte) 0xBA;
+    public static final int DEFAULT_MAX_DATAGRAM_SIZE = 1200;
+    // Receivers size their buffer for a whole UDP payload since oversized messages travel alone
+    public static final int RECEIVE_BUFFER_SIZE = 65507;
+    private static final long IDLE_EVICT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Sender sender;
+    private final int maxDatagramSize;
+    private final long lingerNanos;
+    private final Map<Host, Batch> batches = new ConcurrentHashMap<>();
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder datagrams = new LongAdder();
+
+    public DatagramAggregator(Sender sender, int maxDatagramSize, long linger, TimeUnit unit) {
+        if (maxDatagramSize < 16 || maxDatagramSize > RECEIVE_BUFFER_SIZE) throw new IllegalArgumentException("Datagram size must be between 16 and " + RECEIVE_BUFFER_SIZE + " bytes");
+        this.sender = sender;
+        this.maxDatagramSize = maxDatagramSize;
+        this.lingerNanos = unit.toNanos(linger);
+    }
+
+    public void add(Host to, byte[] encoded) throws IOException {
+        add(to, encoded, 0, encoded.length);
+    }
+
+    public void add(Host to, byte[] encoded, int offset, int length) throws IOException {
+        while (true) {
+            Batch batch = batches.computeIfAbsent(to, host -> new Batch());
+            synchronized (batch) {
+                // flushExpired dropped it between the lookup and the lock, a fresh batch takes its place
+                if (batch.evicted) continue;
+                append(to, batch, encoded, offset, length);
+                return;
+            }
+        }
+    }
+
+    // The caller holds the batch lock
+    private void append(Host to, Batch batch, byte[] encoded, int offset, int length) throws IOException {
+        int needed = varintSize(length) + length;
+        if (batch.position + needed > maxDatagramSize && batch.count > 0) flush(to, batch);
+        // A message bigger than a datagram goes out alone and relies on IP fragmentation
+        if (batch.position + needed > batch.buffer.length) batch.buffer = Arrays.copyOf(batch.buffer, batch.position + needed);
+        if (batch.count == 0) batch.firstQueued = System.nanoTime();
+        batch.position = writeVarint(batch.buffer, batch.position, length);
+        System.arraycopy(encoded, offset, batch.buffer, batch.position, length);
+        batch.position += length;
+        batch.count++;
+        messages.increment();
+        if (batch.position >= maxDatagramSize) flush(to, batch);
+    }
+
+    public void flush(Host to) throws IOException {
+        Batch batch = batches.get(to);
+        if (batch == null) return;
+        synchronized (batch) {
+            flush(to, batch);
+        }
+    }
+
+    public void flushAll() throws IOException {
+        IOException failure = null;
+        for (Map.Entry<Host, Batch> entry : batches.entrySet()) {
+            synchronized (entry.getValue()) {
+                try {
+                    flush(entry.getKey(), entry.getValue());
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    // Run every linger period, sends batches that waited long enough and forgets idle destinations
+    public void flushExpired() {
+        long now = System.nanoTime();
+        for (Map.Entry<Host, Batch> entry : batches.entrySet()) {
+            Batch batch = entry.getValue();
+            synchronized (batch) {
+                if (batch.count == 0) {
+                    if (now - batch.lastFlush > IDLE_EVICT_NANOS && batches.remove(entry.getKey(), batch)) batch.evicted = true;
+                    continue;
+                }
+                if (now - batch.firstQueued < lingerNanos) continue;
+                try {
+                    flush(entry.getKey(), batch);
+                } catch (IOException e) {
+                    System.out.println("Failed to flush datagram batch to " + entry.getKey() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void flush(Host to, Batch batch) throws IOException {
+        if (batch.count == 0) return;
+        try {
+            sender.send(to, batch.buffer, batch.position);
+        } finally {
+            datagrams.increment();
+            if (batch.buffer.length > maxDatagramSize) batch.buffer = new byte[maxDatagramSize];
+            batch.reset();
+        }
+    }
+
+    public static boolean isBatch(byte[] data, int offset, int length) {
+        return length > 1 && data[offset] == MAGIC;
+    }
+
+    // Messages are copied out so the receive buffer can be reused
+    public static List<byte[]> unpack(byte[] data, int offset, int length) throws IOException {
+        List<byte[]> messages = new ArrayList<>();
+        int position = offset + 1;
+        int end = offset + length;
+        while (position < end) {
+            int size = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position >= end || shift > 28) throw new IOException("Malformed datagram batch");
+                b = data[position++];
+                size |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (size < 0 || size > end - position) throw new IOException("Malformed datagram batch");
+            byte[] message = new byte[size];
+            System.arraycopy(data, position, message, 0, size);
+            position += size;
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static int writeVarint(byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public int getMaxDatagramSize() {
+        return maxDatagramSize;
+    }
+
+    public long getLingerNanos() {
+        return lingerNanos;
+    }
+
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    public long getDatagramCount() {
+        return datagrams.sum();
+    }
+
+    public int getPendingDestinations() {
+        return batches.size();
+    }
+
+    @FunctionalInterface
+    public interface Sender {
+
+        void send(Host to, byte[] data, int length) throws IOException;
+
+    }
+
+    private class Batch {
+
+        private byte[] buffer = new byte[maxDatagramSize];
+        private int position = 1;
+        private int count = 0;
+        private long firstQueued;
+        private long lastFlush = System.nanoTime();
+        private boolean evicted = false;
+
+        {
+            buffer[0] = MAGIC;
+        }
+
+        private void reset() {
+            buffer[0] = MAGIC;
+            position = 1;
+            count = 0;
+            lastFlush = System.nanoTime();
+        }
+
+    }
+
+}
@@ -3,6 +3,7 @@ package dev.xernas.particle.client;
 import dev.xernas.particle.Particle;
 import dev.xernas.particle.client.exceptions.ClientException;
 import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.metrics.Metrics;
 import dev.xernas.particle.tasks.Task;
 import org.jetbrains.annotations.NotNull;
 
@@ -22,6 +23,18 @@ public interface Client<I, O> {
 
     Particle getParticle();
 
+    default long getBytesReceived() {
+        return 0;
+    }
+
+    default long getBytesSent() {
+        return 0;
+    }
+
+    default Metrics getMetrics() {
+        return Metrics.disabled();
+    }
+
     String getHost();
 
     int getPort();
@@ -0,0 +1,359 @@
+package dev.xernas.particle.client;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.client.exceptions.ClientException;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.metrics.Metrics;
+import dev.xernas.particle.nio.ChannelHandler;
+import dev.xernas.particle.nio.EventLoop;
+import dev.xernas.particle.nio.EventLoopGroup;
+import dev.xernas.particle.server.TCPServer;
+import dev.xernas.particle.tasks.PingTask;
+import dev.xernas.particle.tasks.Task;
+import dev.xernas.particle.utils.BufferPool;
+import dev.xernas.particle.utils.ByteBufferInputStream;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+public abstract class NioTCPClient<I, O> implements Client<I, O>, ChannelHandler {
+
+    private static final int INITIAL_READ_BUFFER = 8192;
+    private static final int MAX_READ_BUFFER = 16 * 1024 * 1024;
+    private static final byte[] PING = new byte[Integer.BYTES];
+    private static final BufferPool BUFFERS = new BufferPool(8192, 1024);
+
+    private final EventLoopGroup group;
+    private final EventLoop loop;
+    private final CompletableFuture<Void> connected = new CompletableFuture<>();
+    private final List<ScheduledFuture<?>> scheduledTasks = new ArrayList<>();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    // Guarded by writeLock, drained by the event loop
+    private final Object writeLock = new Object();
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private boolean flushScheduled = false;
+
+    private final LongAdder bytesSent = new LongAdder();
+    private long bytesReceived = 0;
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer inbound = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private Particle particle;
+    private MessageIO<I, O> messageIO;
+    private Metrics metrics = Metrics.disabled();
+
+    public NioTCPClient(EventLoopGroup group) {
+        this.group = group;
+        this.loop = group.next();
+    }
+
+    public final CompletableFuture<Void> connectAsync() {
+        if (channel != null) {
+            return CompletableFuture.failedFuture(new ClientException("Client already initialized"));
+        }
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            messageIO = getMessageIO();
+            particle = new Particle(new DataInputStream(new ByteBufferInputStream(inbound)), new DataOutputStream(new OutboundStream()));
+            boolean immediate = channel.connect(new InetSocketAddress(getHost(), getPort()));
+            // The key is set on the loop before the channel is first selected, so handle() and flushes always see it
+            loop.register(channel, immediate ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this, registered -> {
+                key = registered;
+                if (immediate) onConnected();
+            });
+        } catch (IOException e) {
+            fail(new ClientException("Failed to connect to server", e));
+        }
+        return connected;
+    }
+
+    @Override
+    public final void connect() throws ClientException {
+        try {
+            connectAsync().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ClientException clientException) throw clientException;
+            throw new ClientException("Failed to connect to server", e.getCause());
+        }
+    }
+
+    @Override
+    public final void handle(SelectionKey key) throws IOException {
+        if (key.isConnectable()) {
+            channel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+            onConnected();
+            return;
+        }
+        if (key.isWritable()) flushOutbound();
+        if (key.isValid() && key.isReadable()) readInbound();
+    }
+
+    @Override
+    public final void onError(Exception e) {
+        fail(new ClientException("Connection failed", e));
+    }
+
+    private void onConnected() {
+        if (!ping()) return;
+        try {
+            onConnect(particle);
+        } catch (ClientException e) {
+            fail(e);
+            return;
+        }
+
+        ScheduledExecutorService scheduler = group.getScheduler();
+        PingTask<I, O> pingTask = new PingTask<>(this);
+        synchronized (scheduledTasks) {
+            scheduledTasks.add(scheduler.scheduleAtFixedRate(pingTask.asRunnable(), pingTask.getInitialDelay(), pingTask.getPeriod(), pingTask.getTimeUnit()));
+            getRepeatedTasks().forEach(task -> scheduledTasks.add(scheduler.scheduleAtFixedRate(task.asRunnable(), task.getInitialDelay(), task.getPeriod(), task.getTimeUnit())));
+        }
+        metrics.registerGauge("outboundQueue", this::getOutboundQueueSize);
+        connected.complete(null);
+    }
+
+    private void readInbound() throws IOException {
+        int read = channel.read(inbound);
+        if (read == -1) {
+            close();
+            return;
+        }
+        bytesReceived += read;
+        metrics.onBytesIn(null, read);
+
+        inbound.flip();
+        while (inbound.hasRemaining()) {
+            int start = inbound.position();
+            long decodeStart = metrics.isEnabled() ? System.nanoTime() : 0;
+            I message;
+            try {
+                message = messageIO.read(particle);
+            } catch (Particle.ReadException e) {
+                if (!(e.getCause() instanceof EOFException)) {
+                    onError(e);
+                    return;
+                }
+                // Partial message, wait for more bytes
+                inbound.position(start);
+                break;
+            }
+            if (inbound.position() == start) break;
+            if (metrics.isEnabled()) metrics.onMessageIn(null, System.nanoTime() - decodeStart);
+            try {
+                if (message != null) onMessage(message, particle);
+            } catch (ClientException e) {
+                onError(e);
+            }
+        }
+        inbound.compact();
+
+        if (!inbound.hasRemaining()) growInbound();
+    }
+
+    private void growInbound() throws IOException {
+        if (inbound.capacity() >= MAX_READ_BUFFER) throw new IOException("Message exceeds " + MAX_READ_BUFFER + " bytes");
+        ByteBuffer grown = ByteBuffer.allocate(inbound.capacity() * 2);
+        inbound.flip();
+        grown.put(inbound);
+        inbound = grown;
+        particle = new Particle(new DataInputStream(new ByteBufferInputStream(inbound)), particle.out());
+    }
+
+    private void enqueue(byte[] bytes, int offset, int length) {
+        boolean schedule;
+        synchronized (writeLock) {
+            append(bytes, offset, length);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) loop.execute(this::flushSafely);
+    }
+
+    // Fills the last pooled buffer before taking another one, the caller holds writeLock
+    private void append(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            ByteBuffer last = outbound.peekLast();
+            if (last == null || last.limit() == last.capacity()) {
+                last = BUFFERS.acquire().flip();
+                outbound.add(last);
+            }
+            int position = last.position();
+            int count = Math.min(length, last.capacity() - last.limit());
+            last.position(last.limit()).limit(last.limit() + count);
+            last.put(bytes, offset, count);
+            last.position(position);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flushOutbound();
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    private void flushOutbound() throws IOException {
+        if (key == null || !key.isValid()) return;
+        synchronized (writeLock) {
+            while (!outbound.isEmpty()) {
+                ByteBuffer buffer = outbound.peek();
+                int written = channel.write(buffer);
+                bytesSent.add(written);
+                metrics.onBytesOut(null, written);
+                if (buffer.hasRemaining()) break;
+                BUFFERS.release(outbound.poll());
+            }
+            flushScheduled = false;
+            int ops = outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            if (key.interestOps() != ops) key.interestOps(ops);
+        }
+    }
+
+    private void fail(ClientException e) {
+        if (!connected.isDone()) connected.completeExceptionally(e);
+        else if (TCPServer.isDebugEnabled()) e.printStackTrace();
+        close();
+    }
+
+    private void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        synchronized (scheduledTasks) {
+            scheduledTasks.forEach(task -> task.cancel(false));
+            scheduledTasks.clear();
+        }
+        metrics.unregisterGauge("outboundQueue");
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException ignore) {}
+        synchronized (writeLock) {
+            outbound.forEach(BUFFERS::release);
+            outbound.clear();
+        }
+        if (!connected.isDone()) connected.completeExceptionally(new ClientException("Connection closed"));
+        try {
+            onDisconnect();
+        } catch (ClientException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public final void disconnect() throws ClientException {
+        if (channel == null) throw new ClientException("Client not connected");
+        loop.execute(this::close);
+    }
+
+    @Override
+    public final boolean ping() {
+        if (closed.get()) return false;
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        // One 4 byte write under the frame lock, so it can't land inside a message being sent
+        synchronized (particle.out()) {
+            enqueue(PING, 0, PING.length);
+        }
+        if (metrics.isEnabled()) metrics.onPing(System.nanoTime() - start);
+        return true;
+    }
+
+    @Override
+    public final void send(O message) throws ClientException {
+        if (!isConnected()) throw new ClientException("Client not connected");
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        try {
+            // A message is encoded through several writes, keep them contiguous
+            synchronized (particle.out()) {
+                messageIO.write(message, particle);
+            }
+        } catch (Particle.WriteException e) {
+            throw new ClientException("Failed to send message", e);
+        }
+        if (metrics.isEnabled()) metrics.onMessageOut(null, System.nanoTime() - start);
+    }
+
+    @Override
+    public final boolean isConnected() {
+        return channel != null && channel.isConnected() && !closed.get();
+    }
+
+    public final CompletableFuture<Void> getConnectFuture() {
+        return connected;
+    }
+
+    public final int getOutboundQueueSize() {
+        synchronized (writeLock) {
+            return outbound.size();
+        }
+    }
+
+    @Override
+    public Particle getParticle() {
+        if (particle == null) throw new IllegalStateException("Client connection not initialized");
+        return particle;
+    }
+
+    @Override
+    public final long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public final long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public final Metrics enableMetrics(String name) {
+        this.metrics = new Metrics(name);
+        return metrics;
+    }
+
+    @Override
+    public final Metrics getMetrics() {
+        return metrics;
+    }
+
+    private class OutboundStream extends OutputStream {
+
+        private final byte[] single = new byte[1];
+
+        // The byte is copied into the pooled buffer while writeLock is held, so the scratch array can be reused
+        @Override
+        public void write(int b) {
+            synchronized (writeLock) {
+                single[0] = (byte) b;
+                enqueue(single, 0, 1);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (len > 0) enqueue(b, off, len);
+        }
+
+    }
+
+}
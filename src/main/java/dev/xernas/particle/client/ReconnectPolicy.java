@@ -0,0 +1,40 @@
+package dev.xernas.particle.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public record ReconnectPolicy(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter, int maxAttempts, int replayBufferBytes) {
+
+    private static final ReconnectPolicy DISABLED = new ReconnectPolicy(0, 0, 1, 0, 0, 0);
+
+    public ReconnectPolicy {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) throw new IllegalArgumentException("Delays must satisfy 0 <= initial <= max");
+        if (multiplier < 1) throw new IllegalArgumentException("Multiplier must be at least 1");
+        if (jitter < 0 || jitter > 1) throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        if (maxAttempts < 0 || replayBufferBytes < 0) throw new IllegalArgumentException("Attempts and replay buffer size must be positive");
+    }
+
+    public static ReconnectPolicy disabled() {
+        return DISABLED;
+    }
+
+    // Unlimited attempts, 100ms doubling up to 30s with 20% jitter, 1MB of replayable messages
+    public static ReconnectPolicy exponential() {
+        return new ReconnectPolicy(100, 30_000, 2.0, 0.2, 0, 1 << 20);
+    }
+
+    public boolean isEnabled() {
+        return initialDelayMillis > 0;
+    }
+
+    public boolean canRetry(int attempt) {
+        return isEnabled() && (maxAttempts == 0 || attempt <= maxAttempts);
+    }
+
+    public long delayMillis(int attempt) {
+        double delay = Math.min(maxDelayMillis, initialDelayMillis * Math.pow(multiplier, Math.max(0, attempt - 1)));
+        // Spread clients that lost the same server so they don't come back all at once
+        double spread = delay * jitter;
+        return Math.max(1, Math.round(delay - spread + ThreadLocalRandom.current().nextDouble() * 2 * spread));
+    }
+
+}
@@ -2,40 +2,124 @@ package dev.xernas.particle.client;
 
 import dev.xernas.particle.Particle;
 import dev.xernas.particle.client.exceptions.ClientException;
+import dev.xernas.particle.lanes.LaneScheduler;
+import dev.xernas.particle.lanes.Priority;
 import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.metrics.Metrics;
+import dev.xernas.particle.server.SessionResumption;
+import dev.xernas.particle.server.TCPServer;
 import dev.xernas.particle.tasks.PingTask;
+import dev.xernas.particle.stream.StreamSender;
 import dev.xernas.particle.tasks.Task;
+import dev.xernas.particle.transport.Connection;
+import dev.xernas.particle.transport.SocketTransport;
+import dev.xernas.particle.transport.Transport;
+import dev.xernas.particle.utils.CountingInputStream;
+import dev.xernas.particle.utils.CountingOutputStream;
 import org.jetbrains.annotations.NotNull;
 
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public abstract class TCPClient<I, O> implements Client<I, O> {
 
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final CountDownLatch ready = new CountDownLatch(1);
 
-    private boolean initialized = false;
-    private Socket socket;
+    // Keeps messages and pings contiguous, also guards the replay buffer when reconnecting is enabled
+    private final Object writeLock = new Object();
+    private final ArrayDeque<Replay> replayBuffer = new ArrayDeque<>();
+    private long replayBufferBytes = 0;
+    private long streamOffset = 0;
+    private long replayableFrom = 0;
+
+    private volatile boolean initialized = false;
+    private volatile boolean closing = false;
+    private ScheduledExecutorService scheduler;
+    private ReconnectPolicy policy = ReconnectPolicy.disabled();
+    private LaneScheduler lanes;
+    private UUID sessionId;
+    private byte[] resumeToken = new byte[SessionResumption.TOKEN_LENGTH];
+    private Connection connection;
     private Particle particle;
+    private CountingInputStream input;
+    private CountingOutputStream output;
+    private Metrics metrics = Metrics.disabled();
+    private final StreamSender streamSender = new StreamSender();
 
     @Override
     public final void connect() throws ClientException {
         if (initialized) throw new ClientException("Client already initialized");
-        try (Socket socket = new Socket(getHost(), getPort())) {
-            this.socket = socket;
-            this.particle = new Particle(new DataInputStream(socket.getInputStream()), new DataOutputStream(socket.getOutputStream()));
-            boolean success = ping();
-            if (!success) {
-                throw new ClientException("Failed to ping server");
+        closing = false;
+        policy = getReconnectPolicy();
+        int attempt = 0;
+        try {
+            while (true) {
+                try {
+                    if (runConnection()) attempt = 0;
+                } catch (ClientException e) {
+                    if (closing || !policy.canRetry(attempt + 1)) throw e;
+                    if (TCPServer.isDebugEnabled()) System.out.println(e.getMessage());
+                }
+                if (closing) return;
+                if (!policy.canRetry(++attempt)) {
+                    onDisconnect();
+                    if (policy.isEnabled()) throw new ClientException("Gave up reconnecting after " + policy.maxAttempts() + " attempts");
+                    return;
+                }
+                try {
+                    Thread.sleep(policy.delayMillis(attempt));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ClientException("Interrupted while reconnecting", e);
+                }
+            }
+        } finally {
+            initialized = false;
+            ready.countDown();
+        }
+    }
+
+    // Returns once an established connection is lost, true if it got through the handshake
+    private boolean runConnection() throws ClientException {
+        scheduler = Executors.newScheduledThreadPool(2);
+        try (Connection connection = getTransport().connect(getAddress())) {
+            connection.handshake();
+            open(connection);
+            if (policy.isEnabled()) {
+                boolean resuming = sessionId != null;
+                boolean resumed = handshake();
+                if (!resuming) onConnect(particle);
+                else onReconnect(particle, resumed);
+            } else {
+                boolean success = ping();
+                if (!success) {
+                    throw new ClientException("Failed to ping server");
+                }
+                onConnect(particle);
             }
-            onConnect(particle);
 
             PingTask<I, O> pingTask = new PingTask<>(this);
             scheduler.scheduleAtFixedRate(pingTask.asRunnable(), pingTask.getInitialDelay(), pingTask.getPeriod(), pingTask.getTimeUnit());
@@ -44,12 +128,22 @@ public abstract class TCPClient<I, O> implements Client<I, O> {
 
             MessageIO<I, O> messageIO = getMessageIO();
             initialized = true;
+            ready.countDown();
             while (isConnected()) {
                 try {
+                    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+                    long receivedBefore = metrics.isEnabled() ? input.getCount() : 0;
                     I message = messageIO.read(particle);
+                    if (metrics.isEnabled()) {
+                        metrics.onMessageIn(null, System.nanoTime() - start);
+                        metrics.onBytesIn(null, input.getCount() - receivedBefore);
+                    }
                     if (message != null) onMessage(message, particle);
-                } catch (Particle.ReadException ignore) {}
+                } catch (Particle.ReadException e) {
+                    if (e.getCause() instanceof EOFException || e.getCause() instanceof SocketException) break;
+                }
             }
+            return true;
         } catch (IOException e) {
             throw new ClientException("Failed to connect to server", e);
         } finally {
@@ -65,10 +159,65 @@ public abstract class TCPClient<I, O> implements Client<I, O> {
         }
     }
 
+    private boolean handshake() throws ClientException {
+        try {
+            synchronized (writeLock) {
+                particle.writeByte(SessionResumption.HANDSHAKE_MAGIC);
+                particle.writeLong(sessionId == null ? 0 : sessionId.getMostSignificantBits());
+                particle.writeLong(sessionId == null ? 0 : sessionId.getLeastSignificantBits());
+                particle.writeBytes(resumeToken);
+                particle.writeLong(replayableFrom);
+                particle.flush();
+            }
+
+            int magic;
+            // Server pings can arrive before the response
+            while ((magic = particle.readByte(false)) == 0) {}
+            if (magic != SessionResumption.HANDSHAKE_MAGIC) throw new ClientException("Unexpected handshake response");
+            sessionId = new UUID(particle.readLong(), particle.readLong());
+            resumeToken = particle.readBytes(SessionResumption.TOKEN_LENGTH);
+            long received = particle.readLong();
+            boolean resumed = particle.readBoolean();
+
+            List<byte[]> lost = new ArrayList<>();
+            synchronized (writeLock) {
+                List<byte[]> pending = new ArrayList<>();
+                for (Replay replay : replayBuffer) {
+                    // Everything the server decoded is acknowledged, send the rest again
+                    if (resumed && replay.offset() >= received) pending.add(replay.message());
+                    else if (!resumed) lost.add(replay.message());
+                }
+                replayBuffer.clear();
+                replayBufferBytes = 0;
+                streamOffset = resumed ? received : 0;
+                replayableFrom = streamOffset;
+                pending.forEach(this::record);
+                for (Replay replay : replayBuffer) particle.writeBytes(replay.message());
+            }
+            if (!lost.isEmpty()) onMessagesLost(lost);
+            return resumed;
+        } catch (Particle.ReadException | Particle.WriteException e) {
+            throw new ClientException("Handshake with server failed", e);
+        }
+    }
+
+    // Caller holds writeLock
+    private void record(byte[] message) {
+        replayBuffer.add(new Replay(streamOffset, message));
+        replayBufferBytes += message.length;
+        streamOffset += message.length;
+        while (replayBufferBytes > policy.replayBufferBytes() && !replayBuffer.isEmpty()) {
+            Replay evicted = replayBuffer.poll();
+            replayBufferBytes -= evicted.message().length;
+            replayableFrom = evicted.offset() + evicted.message().length;
+        }
+    }
+
     @Override
     public final void disconnect() throws ClientException {
+        closing = true;
         try {
-            socket.close();
+            connection.close();
             onDisconnect();
         } catch (IOException e) {
             throw new ClientException("Failed to disconnect from server", e);
@@ -77,13 +226,22 @@ public abstract class TCPClient<I, O> implements Client<I, O> {
 
     @Override
     public final boolean ping() {
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
         try {
-            particle.writeInt(0);
+            // Pings come from the scheduler, they must not land inside a message
+            if (usesLanes()) lanes.enqueue(Priority.CONTROL, new byte[Integer.BYTES]);
+            else synchronized (writeLock) {
+                particle.writeInt(0);
+                if (policy.isEnabled()) streamOffset += Integer.BYTES;
+            }
+            if (metrics.isEnabled()) metrics.onPing(System.nanoTime() - start);
             return true;
-        } catch (Particle.WriteException e) {
+        } catch (Particle.WriteException | IOException e) {
             try {
-                disconnect();
-            } catch (ClientException ex) {
+                // A failed lane write already disconnected
+                if (policy.isEnabled()) connection.close();
+                else if (!usesLanes()) disconnect();
+            } catch (IOException | ClientException ex) {
                 System.out.println(ex.getMessage());
             }
             return false;
@@ -92,16 +250,173 @@ public abstract class TCPClient<I, O> implements Client<I, O> {
 
     @Override
     public final void send(O message) throws ClientException {
+        if (usesLanes()) {
+            send(message, Priority.INTERACTIVE);
+            return;
+        }
         try {
-            getMessageIO().write(message, particle);
+            if (policy.isEnabled()) {
+                sendReplayable(message);
+                return;
+            }
+            synchronized (writeLock) {
+                if (!metrics.isEnabled()) {
+                    getMessageIO().write(message, particle);
+                    return;
+                }
+                long sentBefore = output.getCount();
+                long start = System.nanoTime();
+                getMessageIO().write(message, particle);
+                metrics.onMessageOut(null, System.nanoTime() - start);
+                metrics.onBytesOut(null, output.getCount() - sentBefore);
+            }
         } catch (Particle.WriteException e) {
             throw new ClientException("Failed to send message", e);
         }
     }
 
+    // Needs lanes to be enabled, the server has to read with a LaneMessageIO
+    public final void send(O message, Priority priority) throws ClientException {
+        if (!usesLanes()) {
+            send(message);
+            return;
+        }
+        if (particle == null) throw new ClientException("Client not connected");
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try {
+            getMessageIO().write(message, new Particle(new DataOutputStream(encoded)));
+            lanes.enqueue(priority, encoded.toByteArray());
+        } catch (Particle.WriteException | IOException e) {
+            throw new ClientException("Failed to send message", e);
+        }
+        if (metrics.isEnabled()) {
+            metrics.onMessageOut(null, System.nanoTime() - start);
+            metrics.onBytesOut(null, encoded.size());
+        }
+    }
+
+    // Replayed bytes have to be whole messages, so reconnecting clients keep writing directly
+    private boolean usesLanes() {
+        return lanes != null && !policy.isEnabled();
+    }
+
+    private void sendReplayable(O message) throws ClientException, Particle.WriteException {
+        if (particle == null) throw new ClientException("Client not connected");
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        getMessageIO().write(message, new Particle(new DataOutputStream(encoded)));
+        byte[] bytes = encoded.toByteArray();
+        synchronized (writeLock) {
+            record(bytes);
+            try {
+                particle.writeBytes(bytes);
+            } catch (Particle.WriteException e) {
+                // Still buffered, it goes out again once the session is resumed
+                if (TCPServer.isDebugEnabled()) System.out.println("Buffered message for replay: " + e.getMessage());
+            }
+        }
+        if (metrics.isEnabled()) {
+            metrics.onMessageOut(null, System.nanoTime() - start);
+            metrics.onBytesOut(null, bytes.length);
+        }
+    }
+
+    public final int sendFile(Path path) throws ClientException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            return sendFile(file, 0, file.size(), path.getFileName().toString());
+        } catch (IOException e) {
+            throw new ClientException("Failed to open " + path, e);
+        }
+    }
+
+    // The peer has to read with a StreamMessageIO, the file goes out in chunks between other messages
+    public final int sendFile(FileChannel file, long position, long count, String name) throws ClientException {
+        if (particle == null) throw new ClientException("Client not connected");
+        if (policy.isEnabled()) throw new ClientException("Streams are not replayed, disable reconnecting to send files");
+        try {
+            return getStreamSender().send(file, position, count, name, (header, source, from, length) -> {
+                synchronized (writeLock) {
+                    transfer(header, source, from, length);
+                }
+                if (metrics.isEnabled()) metrics.onBytesOut(null, header.length + length);
+            });
+        } catch (IOException e) {
+            throw new ClientException("Failed to send " + name, e);
+        }
+    }
+
+    // Callers keep other writes out, the client holds its write lock and the server the particle's output stream
+    public final void transfer(byte[] header, FileChannel file, long position, long count) throws IOException {
+        output.write(header);
+        if (count == 0) return;
+        SocketChannel channel = connection.getChannel();
+        WritableByteChannel target = channel != null ? channel : Channels.newChannel(output);
+        long end = position + count;
+        while (position < end) {
+            long written = file.transferTo(position, end - position, target);
+            if (written > 0) {
+                position += written;
+                if (channel != null) output.add(written);
+                continue;
+            }
+            // The file shrank, pad the frame so the peer stays in sync and can drop the stream
+            byte[] zeros = new byte[(int) Math.min(8192, end - position)];
+            while (position < end) {
+                int length = (int) Math.min(zeros.length, end - position);
+                output.write(zeros, 0, length);
+                position += length;
+            }
+            throw new EOFException("File ended before the announced size");
+        }
+    }
+
+    // Only safe from the thread reading the connection
+    public final void tapInput(OutputStream tap) {
+        input.setTap(tap);
+    }
+
+    public StreamSender getStreamSender() {
+        return streamSender;
+    }
+
+    public SSLContext getSSLContext() {
+        return null;
+    }
+
+    // Return a UnixDomainSocketAddress to talk to a peer on the same host
+    public SocketAddress getAddress() {
+        return new InetSocketAddress(getHost(), getPort());
+    }
+
+    public Transport getTransport() {
+        return Transport.forAddress(getAddress(), getSSLContext());
+    }
+
+    public ReconnectPolicy getReconnectPolicy() {
+        return ReconnectPolicy.disabled();
+    }
+
+    public void onReconnect(Particle particle, boolean resumed) throws ClientException {
+        // Nothing
+    }
+
+    // Encoded messages that were sent but never reached the server because a fresh session was started instead
+    public void onMessagesLost(List<byte[]> encoded) throws ClientException {
+        if (TCPServer.isDebugEnabled()) System.out.println(encoded.size() + " messages lost on reconnect");
+    }
+
+    public final UUID getSessionId() {
+        return sessionId;
+    }
+
+    public final boolean awaitConnected(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit) && isConnected();
+    }
+
     @Override
     public final boolean isConnected() {
-        return socket != null && socket.isConnected() && !socket.isClosed();
+        return connection != null && connection.isOpen();
     }
 
     @Override
@@ -110,24 +425,72 @@ public abstract class TCPClient<I, O> implements Client<I, O> {
         return particle;
     }
 
+    @Override
+    public final long getBytesReceived() {
+        return input == null ? 0 : input.getCount();
+    }
+
+    @Override
+    public final long getBytesSent() {
+        return output == null ? 0 : output.getCount();
+    }
+
+    public final LaneScheduler enableLanes(int chunkSize) {
+        this.lanes = new LaneScheduler(chunkSize, (header, payload, offset, length) -> {
+            synchronized (writeLock) {
+                if (header != null) output.write(header);
+                output.write(payload, offset, length);
+            }
+        }, () -> {
+            try {
+                disconnect();
+            } catch (ClientException e) {
+                if (TCPServer.isDebugEnabled()) e.printStackTrace();
+            }
+        });
+        return lanes;
+    }
+
+    public final LaneScheduler getLanes() {
+        return lanes;
+    }
+
+    public final Metrics enableMetrics(String name) {
+        this.metrics = new Metrics(name);
+        return metrics;
+    }
+
+    @Override
+    public final Metrics getMetrics() {
+        return metrics;
+    }
+
     public String getIPAddress() {
-        return socket.getInetAddress().getHostAddress();
+        if (connection.getRemoteAddress() instanceof InetSocketAddress address) return address.getAddress().getHostAddress();
+        return String.valueOf(connection.getRemoteAddress());
     }
 
     public String getRemoteIPAddress() {
-        return ((InetSocketAddress) socket.getRemoteSocketAddress()).getAddress().getHostName();
+        if (connection.getRemoteAddress() instanceof InetSocketAddress address) return address.getAddress().getHostName();
+        return String.valueOf(connection.getRemoteAddress());
     }
 
     public static <I, O> TCPClient<I, O> wrap(Socket socket) throws IOException {
+        return wrap(new SocketTransport.SocketConnection(socket));
+    }
+
+    public static <I, O> TCPClient<I, O> wrap(Connection connection) throws IOException {
         TCPClient<I, O> client = new TCPClient<>() {
             @Override
             public String getHost() {
-                return socket.getInetAddress().getHostName();
+                if (connection.getRemoteAddress() instanceof InetSocketAddress address) return address.getHostName();
+                return String.valueOf(connection.getRemoteAddress());
             }
 
             @Override
             public int getPort() {
-                return socket.getPort();
+                if (connection.getRemoteAddress() instanceof InetSocketAddress address) return address.getPort();
+                return 0;
             }
 
             @Override
@@ -165,10 +528,19 @@ public abstract class TCPClient<I, O> implements Client<I, O> {
                 // Nothing
             }
         };
-        client.socket = socket;
-        client.particle = new Particle(new DataInputStream(socket.getInputStream()), new DataOutputStream(socket.getOutputStream()));
+        client.open(connection);
         client.initialized = true;
         return client;
     }
 
+    private record Replay(long offset, byte[] message) {}
+
+    private void open(Connection connection) throws IOException {
+        this.connection = connection;
+        this.input = new CountingInputStream(connection.getInputStream());
+        this.output = new CountingOutputStream(connection.getOutputStream());
+        this.particle = new Particle(new DataInputStream(input), new DataOutputStream(output));
+        if (lanes != null) lanes.reopen();
+    }
+
 }
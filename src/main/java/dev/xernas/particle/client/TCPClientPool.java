@@ -0,0 +1,271 @@
+package dev.xernas.particle.client;
+
+import dev.xernas.particle.client.exceptions.ClientException;
+import dev.xernas.particle.server.TCPServer;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class TCPClientPool<I, O> {
+
+    private static final long CONNECT_TIMEOUT_MILLIS = 5000;
+    // Set on a connection as it is trimmed, a caller that raced the trim sees a negative count and picks again
+    private static final int TRIMMED = Integer.MIN_VALUE / 2;
+
+    private final Supplier<? extends TCPClient<I, O>> factory;
+    private final int minSize;
+    private final int maxSize;
+    private final Selection selection;
+    private final long healthCheckMillis;
+    private final long idleNanos;
+
+    private final List<PooledClient<I, O>> clients = new CopyOnWriteArrayList<>();
+    private final AtomicInteger opening = new AtomicInteger();
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "particle-pool-health");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean running = false;
+
+    public TCPClientPool(Supplier<? extends TCPClient<I, O>> factory, int minSize, int maxSize, Selection selection) {
+        this(factory, minSize, maxSize, selection, 1000);
+    }
+
+    public TCPClientPool(Supplier<? extends TCPClient<I, O>> factory, int minSize, int maxSize, Selection selection, long healthCheckMillis) {
+        this(factory, minSize, maxSize, selection, healthCheckMillis, 30000);
+    }
+
+    public TCPClientPool(Supplier<? extends TCPClient<I, O>> factory, int minSize, int maxSize, Selection selection, long healthCheckMillis, long idleMillis) {
+        if (minSize < 1 || maxSize < minSize) throw new IllegalArgumentException("Pool size must satisfy 1 <= min <= max");
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.selection = selection;
+        this.healthCheckMillis = healthCheckMillis;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+    }
+
+    public void start() throws ClientException {
+        if (running) throw new ClientException("Pool already started");
+        running = true;
+        for (int i = 0; i < minSize; i++) {
+            if (open() == null) {
+                close();
+                throw new ClientException("Failed to warm up connection pool");
+            }
+        }
+        scheduler.scheduleWithFixedDelay(this::checkHealth, healthCheckMillis, healthCheckMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void send(O message) throws ClientException {
+        PooledClient<I, O> pooled = acquire();
+        try {
+            write(pooled, message);
+        } finally {
+            release(pooled);
+        }
+    }
+
+    // The connection counts as outstanding until the returned future completes, so LEAST_OUTSTANDING sees requests
+    // still waiting for their response, e.g. pool.request(sender -> tracker.request(sender::send, request, 5, TimeUnit.SECONDS))
+    public <R> CompletableFuture<R> request(Function<Sender<O>, CompletableFuture<R>> call) throws ClientException {
+        PooledClient<I, O> pooled = acquire();
+        CompletableFuture<R> response;
+        try {
+            response = call.apply(message -> write(pooled, message));
+        } catch (RuntimeException e) {
+            release(pooled);
+            throw e;
+        }
+        response.whenComplete((result, failure) -> release(pooled));
+        return response;
+    }
+
+    public void close() {
+        running = false;
+        scheduler.shutdownNow();
+        for (PooledClient<I, O> pooled : clients) retire(pooled);
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    public int getOutstanding() {
+        int outstanding = 0;
+        for (PooledClient<I, O> pooled : clients) outstanding += Math.max(0, pooled.outstanding.get());
+        return outstanding;
+    }
+
+    private PooledClient<I, O> acquire() throws ClientException {
+        while (true) {
+            PooledClient<I, O> pooled = select();
+            if (pooled.outstanding.incrementAndGet() > 0) {
+                pooled.lastUsed = System.nanoTime();
+                return pooled;
+            }
+        }
+    }
+
+    private void release(PooledClient<I, O> pooled) {
+        pooled.lastUsed = System.nanoTime();
+        pooled.outstanding.decrementAndGet();
+    }
+
+    private void write(PooledClient<I, O> pooled, O message) throws ClientException {
+        try {
+            // TCPClient.send is not thread-safe
+            synchronized (pooled) {
+                pooled.client.send(message);
+            }
+        } catch (ClientException e) {
+            retire(pooled);
+            throw e;
+        }
+    }
+
+    private PooledClient<I, O> select() throws ClientException {
+        if (!running) throw new ClientException("Pool is not running");
+        PooledClient<I, O> selected = null;
+        int target = Math.floorMod(next.getAndIncrement(), Math.max(1, clients.size()));
+        int position = 0;
+        // Iterators over a CopyOnWriteArrayList see a stable snapshot
+        for (PooledClient<I, O> pooled : clients) {
+            if (selection == Selection.ROUND_ROBIN) {
+                selected = pooled;
+                if (position++ == target) break;
+            } else if (selected == null || pooled.outstanding.get() < selected.outstanding.get()) {
+                selected = pooled;
+            }
+        }
+        if (selected == null) {
+            selected = open();
+            if (selected == null) throw new ClientException("No connection available");
+            return selected;
+        }
+
+        // Every connection is busy, grow in the background and use the least loaded one meanwhile
+        if (selected.outstanding.get() > 0 && clients.size() + opening.get() < maxSize) {
+            scheduler.execute(this::open);
+        }
+        return selected;
+    }
+
+    private PooledClient<I, O> open() {
+        // Counted before the running check, every path out undoes exactly this one increment
+        int pending = opening.incrementAndGet();
+        if (!running || clients.size() + pending > maxSize) {
+            opening.decrementAndGet();
+            return null;
+        }
+        TCPClient<I, O> client = null;
+        try {
+            client = factory.get();
+            TCPClient<I, O> connecting = client;
+            Thread thread = new Thread(() -> {
+                try {
+                    connecting.connect();
+                } catch (ClientException e) {
+                    if (TCPServer.isDebugEnabled()) e.printStackTrace();
+                }
+            }, "particle-pool-connection");
+            thread.setDaemon(true);
+            thread.start();
+
+            if (!client.awaitConnected(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                abandon(client);
+                return null;
+            }
+            PooledClient<I, O> pooled = new PooledClient<>(client);
+            clients.add(pooled);
+            return pooled;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon(client);
+            return null;
+        } finally {
+            opening.decrementAndGet();
+        }
+    }
+
+    // The connect thread may still get through after the deadline, that connection must not stay open outside the pool
+    private void abandon(TCPClient<I, O> client) {
+        Thread reaper = new Thread(() -> {
+            try {
+                if (client.awaitConnected(Long.MAX_VALUE, TimeUnit.MILLISECONDS)) client.disconnect();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ClientException e) {
+                if (TCPServer.isDebugEnabled()) e.printStackTrace();
+            }
+        }, "particle-pool-abandoned");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    private void checkHealth() {
+        for (PooledClient<I, O> pooled : clients) {
+            boolean healthy;
+            synchronized (pooled) {
+                healthy = pooled.client.isConnected() && pooled.client.ping();
+            }
+            if (!healthy) retire(pooled);
+        }
+        while (running && clients.size() < minSize) {
+            if (open() == null) break;
+        }
+
+        // Connections opened for a burst are closed again once they have been idle, down to min
+        long now = System.nanoTime();
+        for (PooledClient<I, O> pooled : clients) {
+            if (clients.size() <= minSize) break;
+            if (now - pooled.lastUsed >= idleNanos && pooled.outstanding.compareAndSet(0, TRIMMED)) retire(pooled);
+        }
+    }
+
+    private void retire(PooledClient<I, O> pooled) {
+        if (!clients.remove(pooled)) return;
+        try {
+            if (pooled.client.isConnected()) pooled.client.disconnect();
+        } catch (ClientException e) {
+            if (TCPServer.isDebugEnabled()) e.printStackTrace();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Sender<O> {
+
+        void send(O message) throws ClientException;
+
+    }
+
+    public enum Selection {
+
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING
+
+    }
+
+    private static class PooledClient<I, O> {
+
+        private final TCPClient<I, O> client;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile long lastUsed = System.nanoTime();
+
+        private PooledClient(TCPClient<I, O> client) {
+            this.client = client;
+        }
+
+    }
+
+}
@@ -1,8 +1,10 @@
 package dev.xernas.particle.client;
 
 import dev.xernas.particle.Particle;
+import dev.xernas.particle.aggregation.DatagramAggregator;
 import dev.xernas.particle.client.exceptions.ClientException;
 import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.metrics.Metrics;
 import dev.xernas.particle.tasks.PingTask;
 import dev.xernas.particle.tasks.Task;
 import dev.xernas.particle.utils.Host;
@@ -14,9 +16,13 @@ import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class UDPClient<I, O> implements Client<I, O> {
 
+    // Sent as a 4 byte datagram by both ends, it keeps the session alive and is never decoded
+    public static final int PING = 1;
+
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
 
     private boolean initialized = false;
@@ -25,6 +31,10 @@ public abstract class UDPClient<I, O> implements Client<I, O> {
     private Particle particle;
 
     private boolean connected = false;
+    private long bytesReceived = 0;
+    private final LongAdder bytesSent = new LongAdder();
+    private Metrics metrics = Metrics.disabled();
+    private DatagramAggregator aggregator;
 
     @Override
     public void connect() throws ClientException {
@@ -44,18 +54,26 @@ public abstract class UDPClient<I, O> implements Client<I, O> {
             PingTask<I, O> pingTask = new PingTask<>(this);
             scheduler.scheduleAtFixedRate(pingTask.asRunnable(), pingTask.getInitialDelay(), pingTask.getPeriod(), pingTask.getTimeUnit());
             getRepeatedTasks().forEach(task -> scheduler.scheduleAtFixedRate(task.asRunnable(), task.getInitialDelay(), task.getPeriod(), task.getTimeUnit()));
+            DatagramAggregator aggregator = this.aggregator;
+            if (aggregator != null) {
+                long period = Math.max(TimeUnit.MICROSECONDS.toNanos(100), aggregator.getLingerNanos());
+                scheduler.scheduleAtFixedRate(aggregator::flushExpired, period, period, TimeUnit.NANOSECONDS);
+            }
 
             MessageIO<I, O> messageIO = getMessageIO();
             initialized = true;
 
-            byte[] packetReceiverBuffer = new byte[1024];
+            byte[] packetReceiverBuffer = new byte[aggregator == null ? 1024 : DatagramAggregator.RECEIVE_BUFFER_SIZE];
             while (isConnected()) {
                 try {
                     DatagramPacket packet = new DatagramPacket(packetReceiverBuffer, packetReceiverBuffer.length);
                     socket.receive(packet);
-                    Particle packetParticle = new Particle(new DataInputStream(new ByteArrayInputStream(packet.getData(), 0, packet.getLength())));
-                    I message = messageIO.read(packetParticle);
-                    if (message != null) onMessage(message, packetParticle);
+                    bytesReceived += packet.getLength();
+                    metrics.onBytesIn(null, packet.getLength());
+                    if (isPing(packet.getData(), 0, packet.getLength())) continue;
+                    if (aggregator != null && DatagramAggregator.isBatch(packet.getData(), 0, packet.getLength())) {
+                        for (byte[] data : DatagramAggregator.unpack(packet.getData(), 0, packet.getLength())) receive(messageIO, data, data.length);
+                    } else receive(messageIO, packet.getData(), packet.getLength());
                 } catch (Particle.ReadException ignore) {}
             }
         } catch (IOException e) {
@@ -74,8 +92,21 @@ public abstract class UDPClient<I, O> implements Client<I, O> {
         }
     }
 
+    private void receive(MessageIO<I, O> messageIO, byte[] data, int length) throws Particle.ReadException, ClientException {
+        Particle packetParticle = new Particle(new DataInputStream(new ByteArrayInputStream(data, 0, length)));
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        I message = messageIO.read(packetParticle);
+        if (metrics.isEnabled()) metrics.onMessageIn(null, System.nanoTime() - start);
+        if (message != null) onMessage(message, packetParticle);
+    }
+
     @Override
     public void disconnect() throws ClientException {
+        if (aggregator != null && socket != null && !socket.isClosed()) {
+            try {
+                aggregator.flushAll();
+            } catch (IOException ignore) {}
+        }
         if (socket != null) socket.close();
         connected = false;
         onDisconnect();
@@ -83,8 +114,11 @@ public abstract class UDPClient<I, O> implements Client<I, O> {
 
     @Override
     public boolean ping() {
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
         try {
-            Particle.sendUDP(1, socket, new Host(getHost(), getPort()));
+            Particle.sendUDP(PING, socket, new Host(getHost(), getPort()));
+            bytesSent.add(Integer.BYTES);
+            if (metrics.isEnabled()) metrics.onPing(System.nanoTime() - start);
             return true;
         } catch (Particle.WriteException e) {
             try {
@@ -99,12 +133,17 @@ public abstract class UDPClient<I, O> implements Client<I, O> {
     @Override
     public void send(O message) throws ClientException {
         try {
+            long start = metrics.isEnabled() ? System.nanoTime() : 0;
             ByteArrayOutputStream packetData = new ByteArrayOutputStream(1024);
             Particle packetParticleToSend = new Particle(new DataOutputStream(packetData));
             getMessageIO().write(message, packetParticleToSend);
             byte[] data = packetData.toByteArray();
-            Particle.sendUDP(data, socket, new Host(getHost(), getPort()));
-        } catch (Particle.WriteException e) {
+            if (metrics.isEnabled()) metrics.onMessageOut(null, System.nanoTime() - start);
+            if (aggregator != null) aggregator.add(new Host(getHost(), getPort()), data);
+            else Particle.sendUDP(data, socket, new Host(getHost(), getPort()));
+            bytesSent.add(data.length);
+            metrics.onBytesOut(null, data.length);
+        } catch (Particle.WriteException | IOException e) {
             throw new ClientException("Failed to send message", e);
         }
     }
@@ -119,6 +158,40 @@ public abstract class UDPClient<I, O> implements Client<I, O> {
         return particle;
     }
 
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    // Small messages wait up to linger to share a datagram, the server has to enable aggregation too
+    public final DatagramAggregator enableAggregation(int maxDatagramSize, long linger, TimeUnit unit) {
+        this.aggregator = new DatagramAggregator((to, data, length) -> socket.send(new DatagramPacket(data, 0, length, new InetSocketAddress(to.host(), to.port()))), maxDatagramSize, linger, unit);
+        return aggregator;
+    }
+
+    public DatagramAggregator getAggregator() {
+        return aggregator;
+    }
+
+    public final Metrics enableMetrics(String name) {
+        this.metrics = new Metrics(name);
+        return metrics;
+    }
+
+    @Override
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public static boolean isPing(byte[] data, int offset, int length) {
+        return length == Integer.BYTES && data[offset] == 0 && data[offset + 1] == 0 && data[offset + 2] == 0 && data[offset + 3] == PING;
+    }
+
     public Host toHost() {
         return host;
     }
@@ -127,7 +200,7 @@ public abstract class UDPClient<I, O> implements Client<I, O> {
         UDPClient<I, O> client = new UDPClient<>() {
             @Override
             public String getHost() {
-                return packet.getAddress().getHostName();
+                return packet.getAddress().getHostAddress();
             }
 
             @Override
@@ -170,7 +243,9 @@ public abstract class UDPClient<I, O> implements Client<I, O> {
                 //Nothing
             }
         };
-        client.host = new Host(packet.getAddress().getHostName(), packet.getPort());
+        // The literal address, a reverse lookup would block the server's receive thread
+        client.host = new Host(packet.getAddress().getHostAddress(), packet.getPort());
+        client.bytesReceived = packet.getLength();
         client.particle = new Particle(true);
         client.initialized = true;
         return client;
@@ -0,0 +1,427 @@
+package dev.xernas.particle.cluster;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.server.TCPServer;
+import dev.xernas.particle.transport.Acceptor;
+import dev.xernas.particle.transport.Connection;
+import dev.xernas.particle.transport.Transport;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Full mesh between server processes. Every node dials every peer and only writes on the links it dialed: its session
+// claims, sends routed to the peer's sessions and one copy of each broadcast. What a peer claims arrives on the link it dialed.
+// Both ends of a link prove they know the cluster secret before any frame is trusted. Frames are only encrypted when an
+// SSLContext is given, without one bind to a private interface: anyone on the path can read the routed messages.
+public class ClusterNode<I, O> {
+
+    private static final int HELLO = 1;
+    private static final int CLAIM = 2;
+    private static final int RELEASE = 3;
+    private static final int SEND = 4;
+    private static final int BROADCAST = 5;
+    private static final long RETRY_MILLIS = 1000;
+    private static final int NONCE_LENGTH = 16;
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+    // Frames waiting for a slow peer, past this the link is dropped and rebuilt instead of blocking the callers
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String nodeId;
+    private final SocketAddress bindAddress;
+    private final List<SocketAddress> peers;
+    private final SecretKeySpec secret;
+    private final MessageIO<I, O> messageIO;
+    private final LocalSessions localSessions;
+    private final Transport transport;
+
+    private final Map<UUID, Inbound> directory = new ConcurrentHashMap<>();
+    private final Map<String, Outbound> outbound = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final List<Thread> threads = new ArrayList<>();
+    private final LongAdder routed = new LongAdder();
+    private final LongAdder forwardedBroadcasts = new LongAdder();
+    private Acceptor acceptor;
+    private volatile boolean running = false;
+
+    public ClusterNode(String nodeId, SocketAddress bindAddress, List<SocketAddress> peers, byte[] secret, MessageIO<I, O> messageIO, LocalSessions localSessions) {
+        this(nodeId, bindAddress, peers, secret, null, messageIO, localSessions);
+    }
+
+    public ClusterNode(String nodeId, SocketAddress bindAddress, List<SocketAddress> peers, byte[] secret, SSLContext context, MessageIO<I, O> messageIO, LocalSessions localSessions) {
+        if (secret == null || secret.length < 16) throw new IllegalArgumentException("Cluster secret must be at least 16 bytes");
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.peers = List.copyOf(peers);
+        this.secret = new SecretKeySpec(secret, "HmacSHA256");
+        this.messageIO = messageIO;
+        this.localSessions = localSessions;
+        this.transport = Transport.forAddress(bindAddress, context);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) return;
+        running = true;
+        acceptor = transport.bind(bindAddress);
+        startThread(this::acceptLoop, "particle-cluster-acceptor");
+        for (SocketAddress peer : peers) startThread(() -> dialLoop(peer), "particle-cluster-dial-" + peer);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        try {
+            if (acceptor != null) acceptor.close();
+        } catch (IOException ignore) {}
+        for (Connection connection : connections) closeQuietly(connection);
+        synchronized (threads) {
+            for (Thread thread : threads) thread.interrupt();
+            threads.clear();
+        }
+        outbound.clear();
+        directory.clear();
+    }
+
+    // Only queues the frames, the lock orders them against the claims replayed to a new link
+    public synchronized void claim(UUID clientId) {
+        for (Outbound link : outbound.values()) link.write(CLAIM, clientId, null);
+    }
+
+    public synchronized void release(UUID clientId) {
+        for (Outbound link : outbound.values()) link.write(RELEASE, clientId, null);
+    }
+
+    // False when no live peer owns the session
+    public boolean route(UUID clientId, O message) throws Particle.WriteException {
+        Outbound link = ownerLink(clientId);
+        return link != null && link.write(SEND, clientId, encode(message));
+    }
+
+    public boolean route(UUID clientId, byte[] encoded) {
+        Outbound link = ownerLink(clientId);
+        return link != null && link.write(SEND, clientId, encoded);
+    }
+
+    // One frame per peer whatever the number of clients it holds
+    public int broadcast(O message) throws Particle.WriteException {
+        if (outbound.isEmpty()) return 0;
+        byte[] encoded = encode(message);
+        int nodes = 0;
+        for (Outbound link : outbound.values()) {
+            if (link.write(BROADCAST, null, encoded)) nodes++;
+        }
+        forwardedBroadcasts.add(nodes);
+        return nodes;
+    }
+
+    public String ownerOf(UUID clientId) {
+        Inbound owner = directory.get(clientId);
+        return owner == null ? null : owner.peerId;
+    }
+
+    private Outbound ownerLink(UUID clientId) {
+        Inbound owner = directory.get(clientId);
+        if (owner == null) return null;
+        Outbound link = outbound.get(owner.peerId);
+        if (link != null) routed.increment();
+        return link;
+    }
+
+    private byte[] encode(O message) throws Particle.WriteException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        messageIO.write(message, new Particle(new DataOutputStream(encoded)));
+        return encoded.toByteArray();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Connection connection = acceptor.accept();
+                connections.add(connection);
+                startThread(() -> readLoop(connection), "particle-cluster-link");
+            } catch (IOException e) {
+                if (running) System.out.println("Cluster acceptor failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void readLoop(Connection connection) {
+        Inbound inbound = null;
+        try {
+            Particle particle = new Particle(new DataInputStream(connection.getInputStream()), new DataOutputStream(connection.getOutputStream()));
+            if (particle.readByte(false) != HELLO) throw new IOException("Unexpected cluster handshake");
+            String peerId = particle.readString();
+            byte[] peerNonce = particle.readBytes(NONCE_LENGTH);
+            byte[] nonce = nonce();
+            particle.writeByte(HELLO);
+            particle.writeString(nodeId);
+            particle.writeBytes(nonce);
+            particle.writeBytes(proof("accept", peerNonce, nonce, nodeId));
+            particle.flush();
+            // Nothing the peer sends is trusted before it proved it holds the secret too
+            if (!MessageDigest.isEqual(particle.readBytes(32), proof("dial", nonce, peerNonce, peerId))) throw new IOException("Cluster peer " + peerId + " failed authentication");
+            inbound = new Inbound(peerId);
+            while (running) {
+                int kind = particle.readByte(false);
+                switch (kind) {
+                    case CLAIM -> directory.put(readUUID(particle), inbound);
+                    case RELEASE -> directory.remove(readUUID(particle), inbound);
+                    case SEND -> {
+                        UUID clientId = readUUID(particle);
+                        byte[] encoded = particle.readBytes(readLength(particle));
+                        if (!localSessions.send(clientId, encoded) && TCPServer.isDebugEnabled()) System.out.println("Routed message for unknown client " + clientId);
+                    }
+                    case BROADCAST -> {
+                        byte[] encoded = particle.readBytes(readLength(particle));
+                        for (UUID clientId : localSessions.sessions()) localSessions.send(clientId, encoded);
+                    }
+                    default -> throw new IOException("Unknown cluster frame kind " + kind);
+                }
+            }
+        } catch (Exception e) {
+            if (running && TCPServer.isDebugEnabled()) System.out.println("Cluster link closed: " + e.getMessage());
+        } finally {
+            connections.remove(connection);
+            closeQuietly(connection);
+            // Only what came over this link, the peer may already be back on a new one
+            Inbound closed = inbound;
+            if (closed != null) directory.values().removeIf(owner -> owner == closed);
+        }
+    }
+
+    private void dialLoop(SocketAddress peer) {
+        while (running) {
+            Outbound link = null;
+            try (Connection connection = transport.connect(peer)) {
+                connections.add(connection);
+                Particle particle = new Particle(new DataInputStream(connection.getInputStream()), new DataOutputStream(connection.getOutputStream()));
+                byte[] nonce = nonce();
+                particle.writeByte(HELLO);
+                particle.writeString(nodeId);
+                particle.writeBytes(nonce);
+                particle.flush();
+                if (particle.readByte(false) != HELLO) throw new IOException("Unexpected cluster handshake");
+                String peerId = particle.readString();
+                byte[] peerNonce = particle.readBytes(NONCE_LENGTH);
+                if (!MessageDigest.isEqual(particle.readBytes(32), proof("accept", nonce, peerNonce, peerId))) throw new IOException("Cluster peer " + peerId + " failed authentication");
+                particle.writeBytes(proof("dial", peerNonce, nonce, nodeId));
+                particle.flush();
+                link = new Outbound(peerId, connection);
+                Outbound writer = link;
+                startThread(writer::run, "particle-cluster-writer-" + peer);
+                // Same lock as claim and release, a session can't be claimed after it was released
+                synchronized (this) {
+                    outbound.put(link.peerId, link);
+                    for (UUID clientId : localSessions.sessions()) link.write(CLAIM, clientId, null);
+                }
+                // Nothing comes back on a dialed link, the read only returns once it is gone
+                while (running && connection.getInputStream().read() != -1) {}
+            } catch (Exception e) {
+                if (running && TCPServer.isDebugEnabled()) System.out.println("Cluster peer " + peer + " unreachable: " + e.getMessage());
+            } finally {
+                if (link != null) {
+                    outbound.remove(link.peerId, link);
+                    link.close();
+                }
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(() -> {
+            try {
+                runnable.run();
+            } finally {
+                synchronized (threads) {
+                    threads.remove(Thread.currentThread());
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        synchronized (threads) {
+            threads.add(thread);
+        }
+        thread.start();
+    }
+
+    private static byte[] nonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    // Binds the role, both nonces and the sender's id, a proof can't be replayed on another link or reflected back
+    private byte[] proof(String role, byte[] verifierNonce, byte[] proverNonce, String proverId) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            mac.update(role.getBytes(StandardCharsets.UTF_8));
+            mac.update(verifierNonce);
+            mac.update(proverNonce);
+            mac.update(proverId.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to compute cluster proof", e);
+        }
+    }
+
+    private static int readLength(Particle particle) throws Particle.ReadException {
+        int length = particle.readVarInt();
+        if (length < 0 || length > MAX_PAYLOAD) throw new Particle.ReadException("Invalid cluster payload length " + length);
+        return length;
+    }
+
+    private static UUID readUUID(Particle particle) throws Particle.ReadException {
+        return new UUID(particle.readLong(), particle.readLong());
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignore) {}
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Set<String> getConnectedPeers() {
+        return Set.copyOf(outbound.keySet());
+    }
+
+    public int getDirectorySize() {
+        return directory.size();
+    }
+
+    public long getRoutedCount() {
+        return routed.sum();
+    }
+
+    public long getForwardedBroadcasts() {
+        return forwardedBroadcasts.sum();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public interface LocalSessions {
+
+        // Writes an encoded message to a client connected to this node, false if it isn't
+        boolean send(UUID clientId, byte[] encoded);
+
+        Collection<UUID> sessions();
+
+    }
+
+    private static class Inbound {
+
+        private final String peerId;
+
+        private Inbound(String peerId) {
+            this.peerId = peerId;
+        }
+
+    }
+
+    private static class Outbound {
+
+        private final String peerId;
+        private final Connection connection;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile Thread writer;
+        private volatile boolean closed = false;
+
+        private Outbound(String peerId, Connection connection) {
+            this.peerId = peerId;
+            this.connection = connection;
+        }
+
+        // Never blocks: frames are queued for the writer thread, a full queue closes the link and the dial loop replaces it
+        private boolean write(int kind, UUID clientId, byte[] payload) {
+            if (closed) return false;
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(payload == null ? 17 : 22 + payload.length);
+            Particle particle = new Particle(new DataOutputStream(frame));
+            try {
+                particle.writeByte(kind);
+                if (clientId != null) {
+                    particle.writeLong(clientId.getMostSignificantBits());
+                    particle.writeLong(clientId.getLeastSignificantBits());
+                }
+                if (payload != null) {
+                    particle.writeVarInt(payload.length);
+                    particle.writeBytes(payload);
+                }
+            } catch (Particle.WriteException e) {
+                return false;
+            }
+            if (queue.offer(frame.toByteArray())) return true;
+            if (TCPServer.isDebugEnabled()) System.out.println("Cluster peer " + peerId + " is not keeping up, dropping the link");
+            close();
+            return false;
+        }
+
+        // Writes whatever piled up in one go
+        private void run() {
+            writer = Thread.currentThread();
+            List<byte[]> frames = new ArrayList<>();
+            ByteArrayOutputStream batch = new ByteArrayOutputStream(4096);
+            try {
+                OutputStream out = connection.getOutputStream();
+                while (!closed) {
+                    frames.add(queue.take());
+                    queue.drainTo(frames);
+                    for (byte[] frame : frames) batch.write(frame);
+                    frames.clear();
+                    out.write(batch.toByteArray());
+                    out.flush();
+                    batch.reset();
+                }
+            } catch (InterruptedException ignore) {
+                // Closed
+            } catch (IOException e) {
+                if (!closed && TCPServer.isDebugEnabled()) System.out.println("Cluster link to " + peerId + " failed: " + e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        private void close() {
+            if (closed) return;
+            closed = true;
+            queue.clear();
+            closeQuietly(connection);
+            Thread writer = this.writer;
+            if (writer != null && writer != Thread.currentThread()) writer.interrupt();
+        }
+
+    }
+
+}
@@ -0,0 +1,164 @@
+package dev.xernas.particle.interest;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.server.Server;
+import dev.xernas.particle.server.exceptions.ServerException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Uniform grid of session positions, cells should be about the size of a typical query radius.
+// Ended sessions stay members until they are removed, call remove from onClientConnectionEnd.
+public class InterestGrid<I, O> {
+
+    private final Server<I, O> server;
+    private final MessageIO<I, O> messageIO;
+    private final double cellSize;
+
+    private final Map<Long, Set<UUID>> cells = new ConcurrentHashMap<>();
+    private final Map<UUID, Position> positions = new ConcurrentHashMap<>();
+
+    public InterestGrid(Server<I, O> server, MessageIO<I, O> messageIO, double cellSize) {
+        if (cellSize <= 0) throw new IllegalArgumentException("Cell size must be positive");
+        this.server = server;
+        this.messageIO = messageIO;
+        this.cellSize = cellSize;
+    }
+
+    public void update(UUID clientId, double x, double y) {
+        long cell = cellKey(cell(x), cell(y));
+        positions.compute(clientId, (id, previous) -> {
+            // Only sessions crossing a cell boundary touch the cell sets
+            if (previous == null || previous.cell != cell) {
+                if (previous != null) leave(previous.cell, id);
+                cells.compute(cell, (key, members) -> {
+                    if (members == null) members = ConcurrentHashMap.newKeySet();
+                    members.add(id);
+                    return members;
+                });
+            }
+            return new Position(x, y, cell);
+        });
+    }
+
+    public void remove(UUID clientId) {
+        positions.computeIfPresent(clientId, (id, previous) -> {
+            leave(previous.cell, id);
+            return null;
+        });
+    }
+
+    public List<UUID> queryRadius(double x, double y, double radius) {
+        List<UUID> result = new ArrayList<>();
+        double radiusSquared = radius * radius;
+        scan(x - radius, y - radius, x + radius, y + radius, (id, position) -> {
+            double dx = position.x - x;
+            double dy = position.y - y;
+            if (dx * dx + dy * dy <= radiusSquared) result.add(id);
+        });
+        return result;
+    }
+
+    public List<UUID> queryBox(double minX, double minY, double maxX, double maxY) {
+        List<UUID> result = new ArrayList<>();
+        scan(minX, minY, maxX, maxY, (id, position) -> {
+            if (position.x >= minX && position.x <= maxX && position.y >= minY && position.y <= maxY) result.add(id);
+        });
+        return result;
+    }
+
+    public int publish(double x, double y, double radius, O message) throws ServerException {
+        return send(queryRadius(x, y, radius), message);
+    }
+
+    public int publishBox(double minX, double minY, double maxX, double maxY, O message) throws ServerException {
+        return send(queryBox(minX, minY, maxX, maxY), message);
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    public int getCellCount() {
+        return cells.size();
+    }
+
+    private int send(List<UUID> recipients, O message) throws ServerException {
+        if (recipients.isEmpty()) return 0;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try {
+            messageIO.write(message, new Particle(new DataOutputStream(encoded)));
+        } catch (Particle.WriteException e) {
+            throw new ServerException("Failed to encode message", e);
+        }
+        byte[] bytes = encoded.toByteArray();
+
+        int delivered = 0;
+        for (UUID clientId : recipients) {
+            try {
+                if (server.sendBytes(clientId, bytes)) delivered++;
+            } catch (ServerException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return delivered;
+    }
+
+    private void scan(double minX, double minY, double maxX, double maxY, Visitor visitor) {
+        long minCellX = cell(minX);
+        long minCellY = cell(minY);
+        long maxCellX = cell(maxX);
+        long maxCellY = cell(maxY);
+        long covered = (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1);
+
+        // Huge areas cover more cells than are occupied, walk the occupied ones instead
+        if (covered <= 0 || covered > cells.size()) {
+            for (Set<UUID> members : cells.values()) visit(members, visitor);
+            return;
+        }
+        for (long cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (long cellY = minCellY; cellY <= maxCellY; cellY++) {
+                Set<UUID> members = cells.get(cellKey(cellX, cellY));
+                if (members != null) visit(members, visitor);
+            }
+        }
+    }
+
+    private void visit(Set<UUID> members, Visitor visitor) {
+        for (UUID id : members) {
+            Position position = positions.get(id);
+            if (position != null) visitor.visit(id, position);
+        }
+    }
+
+    private void leave(long cell, UUID id) {
+        cells.computeIfPresent(cell, (key, members) -> {
+            members.remove(id);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    private static long cellKey(long cellX, long cellY) {
+        return (cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    private record Position(double x, double y, long cell) {}
+
+    private interface Visitor {
+
+        void visit(UUID id, Position position);
+
+    }
+
+}
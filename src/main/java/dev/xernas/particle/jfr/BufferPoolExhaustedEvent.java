@@ -0,0 +1,21 @@
+package dev.xernas.particle.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dev.xernas.particle.BufferPoolExhausted")
+@Label("Buffer Pool Exhausted")
+@Category({"Particle", "Memory"})
+public class BufferPoolExhaustedEvent extends Event {
+
+    @Label("Buffer Size")
+    @DataAmount
+    public int bufferSize;
+
+    @Label("Max Pooled")
+    public int maxPooled;
+
+}
@@ -0,0 +1,24 @@
+package dev.xernas.particle.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("dev.xernas.particle.Connect")
+@Label("Session Connect")
+@Category({"Particle", "Connection"})
+@StackTrace(false)
+public class ConnectEvent extends Event {
+
+    @Label("Session Id")
+    public String sessionId;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Resumed")
+    public boolean resumed;
+
+}
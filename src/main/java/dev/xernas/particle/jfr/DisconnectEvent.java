@@ -0,0 +1,35 @@
+package dev.xernas.particle.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("dev.xernas.particle.Disconnect")
+@Label("Session Disconnect")
+@Category({"Particle", "Connection"})
+@StackTrace(false)
+public class DisconnectEvent extends Event {
+
+    @Label("Session Id")
+    public String sessionId;
+
+    @Label("Connected For")
+    @Timespan
+    public long connectedFor;
+
+    @Label("Bytes Received")
+    @DataAmount
+    public long bytesReceived;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    public long bytesSent;
+
+    @Label("Detached")
+    public boolean detached;
+
+}
@@ -0,0 +1,27 @@
+package dev.xernas.particle.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+// Covers MessageIO.read, which includes waiting for the rest of a frame that arrived partially
+@Name("dev.xernas.particle.MessageDecode")
+@Label("Message Decode")
+@Category({"Particle", "Messages"})
+@Threshold("1 ms")
+public class MessageDecodeEvent extends Event {
+
+    @Label("Session Id")
+    public String sessionId;
+
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("Frame Size")
+    @DataAmount
+    public long bytes;
+
+}
@@ -0,0 +1,22 @@
+package dev.xernas.particle.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Pings are one way, the duration is how long the ping took to get onto the connection
+@Name("dev.xernas.particle.Ping")
+@Label("Ping")
+@Category({"Particle", "Connection"})
+@StackTrace(false)
+public class PingEvent extends Event {
+
+    @Label("Session Id")
+    public String sessionId;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+
+}
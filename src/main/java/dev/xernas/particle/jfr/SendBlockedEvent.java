@@ -0,0 +1,24 @@
+package dev.xernas.particle.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+// Waiting for the connection's write lock plus the write itself, long ones mean a slow reader or a contended session
+@Name("dev.xernas.particle.SendBlocked")
+@Label("Send Blocked")
+@Category({"Particle", "Messages"})
+@Threshold("10 ms")
+public class SendBlockedEvent extends Event {
+
+    @Label("Session Id")
+    public String sessionId;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+}
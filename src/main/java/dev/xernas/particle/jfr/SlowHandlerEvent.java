@@ -0,0 +1,24 @@
+package dev.xernas.particle.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("dev.xernas.particle.SlowHandler")
+@Label("Slow Message Handler")
+@Category({"Particle", "Messages"})
+@Threshold("20 ms")
+public class SlowHandlerEvent extends Event {
+
+    @Label("Session Id")
+    public String sessionId;
+
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("On Tick Thread")
+    public boolean tick;
+
+}
@@ -0,0 +1,190 @@
+package dev.xernas.particle.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// Appends frames to rolling memory-mapped segments. Writers reserve space with one getAndAdd and publish the record
+// by writing its length last, stored plus one so an empty payload can't be mistaken for an unwritten slot. The writer
+// whose reservation crosses the end of a segment rolls to the next one.
+public class Journal implements Closeable {
+
+    public static final byte INBOUND = 1;
+    public static final byte OUTBOUND = 2;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    // Length + 1, direction, timestamp, session
+    static final int HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES + 2 * Long.BYTES;
+    static final int END_OF_SEGMENT = -1;
+    static final String SUFFIX = ".journal";
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    // Timestamps are wall clock nanoseconds with nanoTime resolution
+    private final long epochNanos = System.currentTimeMillis() * 1_000_000L;
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Segment current;
+    private volatile boolean closed = false;
+
+    public Journal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, 16);
+    }
+
+    // Only the newest maxSegments files are kept, older ones are deleted as the journal rolls
+    public Journal(Path directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < 4096) throw new IllegalArgumentException("Segments must be at least 4096 bytes");
+        if (maxSegments < 1) throw new IllegalArgumentException("At least one segment has to be kept");
+        this.directory = directory;
+        this.segmentSize = segmentSize & ~3;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        List<Path> existing = segments(directory);
+        long index = existing.isEmpty() ? 0 : indexOf(existing.get(existing.size() - 1)) + 1;
+        this.current = openSegment(index);
+    }
+
+    public boolean append(byte direction, UUID sessionId, byte[] payload) {
+        return append(direction, sessionId, payload, 0, payload.length);
+    }
+
+    // Never blocks on other writers, only a writer that runs into a roll waits for the next segment to be mapped
+    public boolean append(byte direction, UUID sessionId, byte[] payload, int offset, int length) {
+        int size = align(HEADER_SIZE + length);
+        if (closed || size > segmentSize) {
+            dropped.increment();
+            return false;
+        }
+        long timestamp = epochNanos + (System.nanoTime() - startNanos);
+        while (true) {
+            Segment segment = current;
+            int start = segment.position.getAndAdd(size);
+            if (start <= segmentSize - size) {
+                MappedByteBuffer buffer = segment.buffer;
+                buffer.put(start + Integer.BYTES, direction);
+                buffer.putLong(start + Integer.BYTES + 1, timestamp);
+                buffer.putLong(start + Integer.BYTES + 1 + Long.BYTES, sessionId.getMostSignificantBits());
+                buffer.putLong(start + Integer.BYTES + 1 + 2 * Long.BYTES, sessionId.getLeastSignificantBits());
+                buffer.put(start + HEADER_SIZE, payload, offset, length);
+                INT.setRelease(buffer, start, length + 1);
+                appended.increment();
+                return true;
+            }
+            // Exactly one reservation starts at or crosses the end, that writer rolls
+            if (start <= segmentSize) {
+                // Readers stop at the marker, the rest of this segment stays empty
+                if (start < segmentSize) INT.setRelease(segment.buffer, start, END_OF_SEGMENT);
+                if (!roll(segment)) {
+                    dropped.increment();
+                    return false;
+                }
+                continue;
+            }
+            // Someone else is rolling, reserving again before it is done would only push the position further
+            while (current == segment && !closed) Thread.yield();
+            if (closed) {
+                dropped.increment();
+                return false;
+            }
+        }
+    }
+
+    private synchronized boolean roll(Segment full) {
+        if (current != full) return true;
+        try {
+            current = openSegment(full.index + 1);
+            full.buffer.force();
+            List<Path> segments = segments(directory);
+            for (int i = 0; i < segments.size() - maxSegments; i++) Files.deleteIfExists(segments.get(i));
+            return true;
+        } catch (IOException e) {
+            System.out.println("Failed to roll journal: " + e.getMessage());
+            // Keeps writers from spinning on a segment that will never be replaced
+            closed = true;
+            return false;
+        }
+    }
+
+    private Segment openSegment(long index) throws IOException {
+        Path path = directory.resolve(String.format("%020d", index) + SUFFIX);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Segment(index, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+    }
+
+    public void flush() {
+        current.buffer.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        current.buffer.force();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getAppended() {
+        return appended.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    static int align(int size) {
+        return (size + 3) & ~3;
+    }
+
+    static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = new ArrayList<>(files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).toList());
+            segments.sort(null);
+            return segments;
+        }
+    }
+
+    private static long indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private static class Segment {
+
+        private final long index;
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger position = new AtomicInteger();
+
+        private Segment(long index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+
+    }
+
+}
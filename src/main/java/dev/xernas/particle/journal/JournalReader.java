@@ -0,0 +1,60 @@
+package dev.xernas.particle.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+
+// Reads the segments of a journal in order, records still being written at the tail are not returned
+public class JournalReader implements Closeable {
+
+    private final List<Path> segments;
+    private int segmentIndex = -1;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    public JournalReader(Path directory) throws IOException {
+        this.segments = Journal.segments(directory);
+    }
+
+    public JournalRecord next() throws IOException {
+        while (true) {
+            if (buffer == null && !nextSegment()) return null;
+            int published = buffer.limit() - position >= Integer.BYTES ? buffer.getInt(position) : Journal.END_OF_SEGMENT;
+            // Zero means nothing was published there, either the end of the journal or a writer that never finished
+            if (published == Journal.END_OF_SEGMENT || published == 0) {
+                buffer = null;
+                continue;
+            }
+            int length = published - 1;
+            if (length < 0 || position + Journal.HEADER_SIZE + length > buffer.limit()) throw new IOException("Corrupted journal record in " + segments.get(segmentIndex));
+            byte direction = buffer.get(position + Integer.BYTES);
+            long timestamp = buffer.getLong(position + Integer.BYTES + 1);
+            UUID sessionId = new UUID(buffer.getLong(position + Integer.BYTES + 1 + Long.BYTES), buffer.getLong(position + Integer.BYTES + 1 + 2 * Long.BYTES));
+            byte[] payload = new byte[length];
+            buffer.get(position + Journal.HEADER_SIZE, payload);
+            position += Journal.align(Journal.HEADER_SIZE + length);
+            return new JournalRecord(direction, timestamp, sessionId, payload);
+        }
+    }
+
+    private boolean nextSegment() throws IOException {
+        if (++segmentIndex >= segments.size()) return false;
+        try (FileChannel channel = FileChannel.open(segments.get(segmentIndex), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public void close() {
+        buffer = null;
+        segmentIndex = segments.size();
+    }
+
+}
@@ -0,0 +1,15 @@
+package dev.xernas.particle.journal;
+
+import java.util.UUID;
+
+public record JournalRecord(byte direction, long timestampNanos, UUID sessionId, byte[] payload) {
+
+    public boolean isInbound() {
+        return direction == Journal.INBOUND;
+    }
+
+    public boolean isOutbound() {
+        return direction == Journal.OUTBOUND;
+    }
+
+}
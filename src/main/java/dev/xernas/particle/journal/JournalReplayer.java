@@ -0,0 +1,54 @@
+package dev.xernas.particle.journal;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.server.Server;
+import dev.xernas.particle.server.exceptions.ServerException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+
+// Feeds the inbound records of a journal to Server.onMessage, replayed sessions are not connected so replies go nowhere
+public class JournalReplayer {
+
+    private final Path directory;
+    private final double speed;
+
+    // 1 keeps the original pacing, 2 plays twice as fast and 0 or less plays without waiting at all
+    public JournalReplayer(Path directory, double speed) {
+        this.directory = directory;
+        this.speed = speed;
+    }
+
+    public <I, O> long replay(Server<I, O> server) throws IOException {
+        long replayed = 0;
+        long firstTimestamp = 0;
+        long start = System.nanoTime();
+        try (JournalReader reader = new JournalReader(directory)) {
+            JournalRecord record;
+            while ((record = reader.next()) != null) {
+                if (!record.isInbound()) continue;
+                if (replayed == 0) firstTimestamp = record.timestampNanos();
+                if (speed > 0) {
+                    long due = start + (long) ((record.timestampNanos() - firstTimestamp) / speed);
+                    long remaining;
+                    while ((remaining = due - System.nanoTime()) > 0) LockSupport.parkNanos(remaining);
+                }
+                Particle particle = new Particle(new DataInputStream(new ByteArrayInputStream(record.payload())), new DataOutputStream(OutputStream.nullOutputStream()));
+                try {
+                    I message = server.getMessageIO(record.sessionId()).read(particle);
+                    if (message != null) server.onMessage(record.sessionId(), message, particle);
+                } catch (Particle.ReadException | ServerException e) {
+                    System.out.println("Failed to replay message of " + record.sessionId() + ": " + e.getMessage());
+                }
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+}
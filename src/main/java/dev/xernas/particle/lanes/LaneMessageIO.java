@@ -0,0 +1,65 @@
+package dev.xernas.particle.lanes;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.message.MessageIO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+// Frame: kind byte, then the wrapped message or a chunk of a larger frame. Chunks carry the whole encoded frame of a
+// message split by the LaneScheduler, the last one completes it. Use one instance per connection.
+public class LaneMessageIO<I, O> implements MessageIO<I, O> {
+
+    static final int MESSAGE = 1;
+    static final int CHUNK = 2;
+    static final int LAST_CHUNK = 3;
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+    private final MessageIO<I, O> payloadIO;
+    private final int maxMessageSize;
+    private final Map<Integer, ByteArrayOutputStream> partial = new HashMap<>();
+
+    public LaneMessageIO(MessageIO<I, O> payloadIO) {
+        this(payloadIO, DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    public LaneMessageIO(MessageIO<I, O> payloadIO, int maxMessageSize) {
+        this.payloadIO = payloadIO;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    public I read(Particle particle) throws Particle.ReadException {
+        int kind = particle.readByte(false);
+        // Pings are written as a zero int, each zero byte is skipped on its own
+        if (kind == 0) return null;
+        if (kind == MESSAGE) return payloadIO.read(particle);
+        if (kind != CHUNK && kind != LAST_CHUNK) throw new Particle.ReadException("Unknown lane frame kind " + kind);
+
+        int messageId = particle.readVarInt();
+        byte[] chunk = particle.readBytes(particle.readVarInt());
+        ByteArrayOutputStream message = partial.computeIfAbsent(messageId, id -> new ByteArrayOutputStream());
+        if (message.size() + chunk.length > maxMessageSize) {
+            partial.remove(messageId);
+            throw new Particle.ReadException("Chunked message is larger than " + maxMessageSize + " bytes");
+        }
+        message.writeBytes(chunk);
+        if (kind == CHUNK) return null;
+        partial.remove(messageId);
+        return read(new Particle(new DataInputStream(new ByteArrayInputStream(message.toByteArray()))));
+    }
+
+    @Override
+    public void write(O message, Particle particle) throws Particle.WriteException {
+        particle.writeByte(MESSAGE);
+        payloadIO.write(message, particle);
+    }
+
+    public int getPartialCount() {
+        return partial.size();
+    }
+
+}
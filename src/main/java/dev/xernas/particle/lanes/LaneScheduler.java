@@ -0,0 +1,199 @@
+package dev.xernas.particle.lanes;
+
+import dev.xernas.particle.Particle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// One per connection. Whoever enqueues and finds the connection idle writes for everyone until the lanes are empty,
+// one frame at a time: control frames first, the other lanes by deficit round robin. Frames larger than a chunk
+// are split so a control frame never waits for more than one chunk. A failed write closes the scheduler: the lanes
+// are dropped, the connection is closed through onFailure and every later enqueue fails with the same cause.
+public class LaneScheduler {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final int chunkSize;
+    private final FrameWriter writer;
+    private final Runnable onFailure;
+    private final List<Queue<Pending>> lanes;
+    private final long[] deficits = new long[PRIORITIES.length];
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicInteger nextMessageId = new AtomicInteger();
+    private volatile IOException failure;
+
+    public LaneScheduler(int chunkSize, FrameWriter writer) {
+        this(chunkSize, writer, () -> {});
+    }
+
+    public LaneScheduler(int chunkSize, FrameWriter writer, Runnable onFailure) {
+        if (chunkSize < 64) throw new IllegalArgumentException("Chunks must be at least 64 bytes");
+        this.chunkSize = chunkSize;
+        this.writer = writer;
+        this.onFailure = onFailure;
+        List<Queue<Pending>> lanes = new ArrayList<>(PRIORITIES.length);
+        for (int i = 0; i < PRIORITIES.length; i++) lanes.add(new ConcurrentLinkedQueue<>());
+        this.lanes = List.copyOf(lanes);
+    }
+
+    // The encoded frame comes from the connection's MessageIO, it is written as is or split into chunks
+    public void enqueue(Priority priority, byte[] frame) throws IOException {
+        checkOpen();
+        // Zero marks a frame that fits in one chunk
+        int messageId = frame.length > chunkSize ? Math.floorMod(nextMessageId.incrementAndGet(), Integer.MAX_VALUE) + 1 : 0;
+        lanes.get(priority.ordinal()).add(new Pending(frame, messageId));
+        drain();
+        // Another thread's write may have failed while this frame was queued, it was dropped with the rest
+        checkOpen();
+    }
+
+    // Writes what is queued, waiting for another thread's write to finish, false if frames are left at the deadline
+    public boolean flush(long timeout, TimeUnit unit) throws IOException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        drain();
+        while (hasPending() && failure == null) {
+            if (deadline - System.nanoTime() <= 0) return false;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            drain();
+        }
+        checkOpen();
+        return true;
+    }
+
+    private void drain() throws IOException {
+        while (hasPending() && failure == null) {
+            if (!writing.compareAndSet(false, true)) return;
+            try {
+                while (writeNext()) {}
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                writing.set(false);
+            }
+            // Something enqueued after the last check but before the flag was released is picked up here
+        }
+        // Frames added while failing are never written
+        if (failure != null) for (Queue<Pending> lane : lanes) lane.clear();
+    }
+
+    private void fail(IOException e) {
+        // The connection is gone, nothing queued can make it anymore
+        failure = e;
+        for (Queue<Pending> lane : lanes) lane.clear();
+        try {
+            onFailure.run();
+        } catch (RuntimeException ignore) {}
+    }
+
+    private void checkOpen() throws IOException {
+        IOException failure = this.failure;
+        if (failure != null) throw new IOException("Connection failed: " + failure.getMessage(), failure);
+    }
+
+    // Lets a client reuse its scheduler on a new connection
+    public void reopen() {
+        failure = null;
+    }
+
+    public boolean isClosed() {
+        return failure != null;
+    }
+
+    private boolean writeNext() throws IOException {
+        Queue<Pending> control = lanes.get(Priority.CONTROL.ordinal());
+        if (!control.isEmpty()) {
+            writeFrame(control);
+            return true;
+        }
+        boolean pending = false;
+        for (int i = 1; i < lanes.size(); i++) {
+            Queue<Pending> lane = lanes.get(i);
+            if (lane.isEmpty()) {
+                deficits[i] = 0;
+                continue;
+            }
+            pending = true;
+            if (deficits[i] <= 0) continue;
+            deficits[i] -= writeFrame(lane);
+            return true;
+        }
+        if (!pending) return false;
+        // Every busy lane spent its quantum, start a new round
+        for (int i = 1; i < lanes.size(); i++) {
+            if (!lanes.get(i).isEmpty()) deficits[i] += (long) PRIORITIES[i].getWeight() * chunkSize;
+        }
+        return true;
+    }
+
+    private int writeFrame(Queue<Pending> lane) throws IOException {
+        Pending pending = lane.peek();
+        byte[] frame = pending.frame;
+        if (pending.messageId == 0) {
+            writer.write(null, frame, 0, frame.length);
+            lane.poll();
+            return frame.length;
+        }
+        int length = Math.min(chunkSize, frame.length - pending.offset);
+        boolean last = pending.offset + length == frame.length;
+        writer.write(chunkHeader(last ? LaneMessageIO.LAST_CHUNK : LaneMessageIO.CHUNK, pending.messageId, length), frame, pending.offset, length);
+        pending.offset += length;
+        if (last) lane.poll();
+        return length;
+    }
+
+    private static byte[] chunkHeader(int kind, int messageId, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(11);
+        Particle particle = new Particle(new DataOutputStream(bytes));
+        try {
+            particle.writeByte(kind);
+            particle.writeVarInt(messageId);
+            particle.writeVarInt(length);
+        } catch (Particle.WriteException e) {
+            throw new IOException("Failed to encode chunk header", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public boolean hasPending() {
+        for (Queue<Pending> lane : lanes) {
+            if (!lane.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public interface FrameWriter {
+
+        // Header may be null, both parts go out together before any other write to the connection
+        void write(byte[] header, byte[] payload, int offset, int length) throws IOException;
+
+    }
+
+    private static class Pending {
+
+        private final byte[] frame;
+        private final int messageId;
+        private int offset = 0;
+
+        private Pending(byte[] frame, int messageId) {
+            this.frame = frame;
+            this.messageId = messageId;
+        }
+
+    }
+
+}
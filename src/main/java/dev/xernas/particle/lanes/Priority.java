@@ -0,0 +1,20 @@
+package dev.xernas.particle.lanes;
+
+public enum Priority {
+
+    // Always goes first, meant for pings and small control messages
+    CONTROL(0),
+    INTERACTIVE(4),
+    BULK(1);
+
+    private final int weight;
+
+    Priority(int weight) {
+        this.weight = weight;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+}
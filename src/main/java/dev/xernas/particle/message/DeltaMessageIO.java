@@ -0,0 +1,179 @@
+package dev.xernas.particle.message;
+
+import dev.xernas.particle.Particle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+public class DeltaMessageIO<T> implements MessageIO<T, T> {
+
+    private static final int FULL_SNAPSHOT = 0;
+    private static final int MAX_SNAPSHOT_SIZE = 16 * 1024 * 1024;
+
+    private final MessageIO<T, T> snapshotIO;
+    private final int historySize;
+
+    private final int[] sentSequences;
+    private final byte[][] sentSnapshots;
+    private final int[] receivedSequences;
+    private final byte[][] receivedSnapshots;
+
+    private int sequence = 0;
+    private int acknowledged = FULL_SNAPSHOT;
+    private int lastReceived = FULL_SNAPSHOT;
+    private boolean baselineLost = false;
+
+    public DeltaMessageIO(MessageIO<T, T> snapshotIO) {
+        this(snapshotIO, 32);
+    }
+
+    public DeltaMessageIO(MessageIO<T, T> snapshotIO, int historySize) {
+        if (historySize < 1) throw new IllegalArgumentException("History size must be positive");
+        this.snapshotIO = snapshotIO;
+        this.historySize = historySize;
+        this.sentSequences = new int[historySize];
+        this.sentSnapshots = new byte[historySize][];
+        this.receivedSequences = new int[historySize];
+        this.receivedSnapshots = new byte[historySize][];
+    }
+
+    @Override
+    public synchronized void write(T message, Particle particle) throws Particle.WriteException {
+        ByteArrayOutputStream snapshotData = new ByteArrayOutputStream(256);
+        snapshotIO.write(message, new Particle(new DataOutputStream(snapshotData)));
+        byte[] snapshot = snapshotData.toByteArray();
+
+        // Sequences wrap around, skipping the value reserved for full snapshots
+        if (++sequence == FULL_SNAPSHOT) ++sequence;
+        int current = sequence;
+        byte[] baseline = sentSnapshot(acknowledged);
+        particle.writeVarInt(current);
+        if (baseline == null) {
+            particle.writeVarInt(FULL_SNAPSHOT);
+            particle.writeVarInt(snapshot.length);
+            particle.writeBytes(snapshot);
+        } else {
+            particle.writeVarInt(acknowledged);
+            writeDelta(snapshot, baseline, particle);
+        }
+
+        int slot = slot(current);
+        sentSequences[slot] = current;
+        sentSnapshots[slot] = snapshot;
+    }
+
+    @Override
+    public synchronized T read(Particle particle) throws Particle.ReadException {
+        int current = particle.readVarInt();
+        if (current == FULL_SNAPSHOT) throw new Particle.ReadException("Malformed delta sequence");
+        int baselineSequence = particle.readVarInt();
+        byte[] snapshot;
+        if (baselineSequence == FULL_SNAPSHOT) {
+            snapshot = particle.readBytes(readLength(particle));
+        } else {
+            byte[] baseline = receivedSnapshot(baselineSequence);
+            snapshot = readDelta(baseline, particle);
+            if (baseline == null) {
+                baselineLost = true;
+                return null;
+            }
+        }
+
+        int slot = slot(current);
+        receivedSequences[slot] = current;
+        receivedSnapshots[slot] = snapshot;
+        if (isNewer(current, lastReceived)) lastReceived = current;
+        baselineLost = false;
+        return snapshotIO.read(new Particle(new DataInputStream(new ByteArrayInputStream(snapshot))));
+    }
+
+    public synchronized void acknowledge(int acknowledgedSequence) {
+        if (isNewer(acknowledgedSequence, acknowledged) && sentSnapshot(acknowledgedSequence) != null) {
+            acknowledged = acknowledgedSequence;
+        }
+    }
+
+    public synchronized void resync() {
+        acknowledged = FULL_SNAPSHOT;
+    }
+
+    public synchronized int getLastReceivedSequence() {
+        return lastReceived;
+    }
+
+    public synchronized boolean isBaselineLost() {
+        return baselineLost;
+    }
+
+    private byte[] sentSnapshot(int sequence) {
+        if (sequence == FULL_SNAPSHOT) return null;
+        int slot = slot(sequence);
+        return sentSequences[slot] == sequence ? sentSnapshots[slot] : null;
+    }
+
+    private byte[] receivedSnapshot(int sequence) {
+        int slot = slot(sequence);
+        return receivedSequences[slot] == sequence ? receivedSnapshots[slot] : null;
+    }
+
+    // Serial number comparison, stays correct when the sequence wraps around
+    private static boolean isNewer(int sequence, int than) {
+        return than == FULL_SNAPSHOT || sequence - than > 0;
+    }
+
+    private int slot(int sequence) {
+        return Integer.remainderUnsigned(sequence, historySize);
+    }
+
+    // Runs of (unchanged byte count, changed byte count, changed bytes XOR baseline)
+    private static void writeDelta(byte[] snapshot, byte[] baseline, Particle particle) throws Particle.WriteException {
+        particle.writeVarInt(snapshot.length);
+        int position = 0;
+        while (position < snapshot.length) {
+            int unchangedStart = position;
+            while (position < snapshot.length && snapshot[position] == baselineByte(baseline, position)) position++;
+            int changedStart = position;
+            while (position < snapshot.length && snapshot[position] != baselineByte(baseline, position)) position++;
+
+            particle.writeVarInt(changedStart - unchangedStart);
+            particle.writeVarInt(position - changedStart);
+            for (int i = changedStart; i < position; i++) {
+                particle.writeByte(snapshot[i] ^ baselineByte(baseline, i));
+            }
+        }
+    }
+
+    private static byte[] readDelta(byte[] baseline, Particle particle) throws Particle.ReadException {
+        int length = readLength(particle);
+        byte[] snapshot = new byte[length];
+        int position = 0;
+        while (position < length) {
+            int unchanged = particle.readVarInt();
+            int changed = particle.readVarInt();
+            // A run that covers nothing would loop forever
+            if (unchanged < 0 || changed < 0 || (unchanged == 0 && changed == 0) || (long) position + unchanged + changed > length) {
+                throw new Particle.ReadException("Malformed delta snapshot");
+            }
+            for (int i = 0; i < unchanged; i++, position++) {
+                snapshot[position] = baselineByte(baseline, position);
+            }
+            for (int i = 0; i < changed; i++, position++) {
+                snapshot[position] = (byte) (particle.readByte(false) ^ baselineByte(baseline, position));
+            }
+        }
+        return snapshot;
+    }
+
+    private static int readLength(Particle particle) throws Particle.ReadException {
+        int length = particle.readVarInt();
+        if (length < 0 || length > MAX_SNAPSHOT_SIZE) throw new Particle.ReadException("Invalid snapshot length " + length);
+        return length;
+    }
+
+    private static byte baselineByte(byte[] baseline, int position) {
+        return baseline != null && position < baseline.length ? baseline[position] : 0;
+    }
+
+}
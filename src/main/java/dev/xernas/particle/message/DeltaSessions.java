@@ -0,0 +1,41 @@
+package dev.xernas.particle.message;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+public class DeltaSessions<T> {
+
+    private final Map<UUID, DeltaMessageIO<T>> sessions = new ConcurrentHashMap<>();
+    private final Supplier<MessageIO<T, T>> snapshotIO;
+    private final int historySize;
+
+    public DeltaSessions(Supplier<MessageIO<T, T>> snapshotIO) {
+        this(snapshotIO, 32);
+    }
+
+    public DeltaSessions(Supplier<MessageIO<T, T>> snapshotIO, int historySize) {
+        this.snapshotIO = snapshotIO;
+        this.historySize = historySize;
+    }
+
+    public DeltaMessageIO<T> get(UUID clientId) {
+        return sessions.computeIfAbsent(clientId, id -> new DeltaMessageIO<>(snapshotIO.get(), historySize));
+    }
+
+    public void acknowledge(UUID clientId, int sequence) {
+        DeltaMessageIO<T> session = sessions.get(clientId);
+        if (session != null) session.acknowledge(sequence);
+    }
+
+    public void resync(UUID clientId) {
+        DeltaMessageIO<T> session = sessions.get(clientId);
+        if (session != null) session.resync();
+    }
+
+    public void remove(UUID clientId) {
+        sessions.remove(clientId);
+    }
+
+}
@@ -0,0 +1,223 @@
+package dev.xernas.particle.metrics;
+
+import dev.xernas.particle.ParticleException;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public class Metrics implements MetricsMXBean {
+
+    private static final Metrics DISABLED = new Metrics("disabled", false);
+
+    private final String name;
+    private final boolean enabled;
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder activeSessions = new LongAdder();
+
+    private final Histogram decodeLatency = new Histogram();
+    private final Histogram encodeLatency = new Histogram();
+    private final Histogram pingLatency = new Histogram();
+
+    private final Map<UUID, SessionMetrics> sessions = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public Metrics(String name) {
+        this(name, true);
+    }
+
+    private Metrics(String name, boolean enabled) {
+        this.name = name;
+        this.enabled = enabled;
+    }
+
+    public static Metrics disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void onAccept() {
+        if (!enabled) return;
+        accepted.increment();
+    }
+
+    public void onSessionOpened(UUID clientId) {
+        if (!enabled) return;
+        activeSessions.increment();
+        sessions.put(clientId, new SessionMetrics());
+    }
+
+    public void onSessionClosed(UUID clientId) {
+        if (!enabled) return;
+        if (sessions.remove(clientId) != null) activeSessions.decrement();
+    }
+
+    public void onBytesIn(UUID clientId, long bytes) {
+        if (!enabled || bytes <= 0) return;
+        bytesIn.add(bytes);
+        SessionMetrics session = session(clientId);
+        if (session != null) session.addBytesIn(bytes);
+    }
+
+    public void onBytesOut(UUID clientId, long bytes) {
+        if (!enabled || bytes <= 0) return;
+        bytesOut.add(bytes);
+        SessionMetrics session = session(clientId);
+        if (session != null) session.addBytesOut(bytes);
+    }
+
+    public void onMessageIn(UUID clientId, long decodeNanos) {
+        if (!enabled) return;
+        messagesIn.increment();
+        decodeLatency.record(decodeNanos);
+        SessionMetrics session = session(clientId);
+        if (session != null) session.incrementMessagesIn();
+    }
+
+    public void onMessageOut(UUID clientId, long encodeNanos) {
+        if (!enabled) return;
+        messagesOut.increment();
+        encodeLatency.record(encodeNanos);
+        SessionMetrics session = session(clientId);
+        if (session != null) session.incrementMessagesOut();
+    }
+
+    public void onPing(long nanos) {
+        if (!enabled) return;
+        pingLatency.record(nanos);
+    }
+
+    public void registerGauge(String gaugeName, LongSupplier gauge) {
+        if (!enabled) return;
+        gauges.put(gaugeName, gauge);
+    }
+
+    public void unregisterGauge(String gaugeName) {
+        gauges.remove(gaugeName);
+    }
+
+    public SessionMetrics session(UUID clientId) {
+        return clientId == null ? null : sessions.get(clientId);
+    }
+
+    public Histogram getDecodeLatency() {
+        return decodeLatency;
+    }
+
+    public Histogram getEncodeLatency() {
+        return encodeLatency;
+    }
+
+    public Histogram getPingLatency() {
+        return pingLatency;
+    }
+
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(
+                getBytesIn(),
+                getBytesOut(),
+                getMessagesIn(),
+                getMessagesOut(),
+                getAccepted(),
+                getActiveSessions(),
+                decodeLatency.getPercentile(50),
+                decodeLatency.getPercentile(99),
+                encodeLatency.getPercentile(50),
+                encodeLatency.getPercentile(99),
+                pingLatency.getPercentile(50),
+                pingLatency.getPercentile(99),
+                getGauges()
+        );
+    }
+
+    public void registerMBean() throws ParticleException {
+        if (!enabled) throw new ParticleException("Metrics are disabled");
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+        } catch (Exception e) {
+            throw new ParticleException("Failed to register metrics MBean", e);
+        }
+    }
+
+    public void unregisterMBean() throws ParticleException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+        } catch (Exception e) {
+            throw new ParticleException("Failed to unregister metrics MBean", e);
+        }
+    }
+
+    private ObjectName objectName() throws Exception {
+        return new ObjectName("dev.xernas.particle:type=Metrics,name=" + ObjectName.quote(name));
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return activeSessions.sum();
+    }
+
+    @Override
+    public long getDecodeLatencyP99Nanos() {
+        return decodeLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getEncodeLatencyP99Nanos() {
+        return encodeLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getPingLatencyP99Nanos() {
+        return pingLatency.getPercentile(99);
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        gauges.forEach((gaugeName, gauge) -> values.put(gaugeName, gauge.getAsLong()));
+        return values;
+    }
+
+}
@@ -0,0 +1,27 @@
+package dev.xernas.particle.metrics;
+
+import java.util.Map;
+
+public interface MetricsMXBean {
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getAccepted();
+
+    long getActiveSessions();
+
+    long getDecodeLatencyP99Nanos();
+
+    long getEncodeLatencyP99Nanos();
+
+    long getPingLatencyP99Nanos();
+
+    Map<String, Long> getGauges();
+
+}
@@ -0,0 +1,20 @@
+package dev.xernas.particle.metrics;
+
+import java.util.Map;
+
+public record MetricsSnapshot(
+        long bytesIn,
+        long bytesOut,
+        long messagesIn,
+        long messagesOut,
+        long accepted,
+        long activeSessions,
+        long decodeLatencyP50Nanos,
+        long decodeLatencyP99Nanos,
+        long encodeLatencyP50Nanos,
+        long encodeLatencyP99Nanos,
+        long pingLatencyP50Nanos,
+        long pingLatencyP99Nanos,
+        Map<String, Long> gauges
+) {
+}
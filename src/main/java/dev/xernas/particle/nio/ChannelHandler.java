@@ -0,0 +1,12 @@
+package dev.xernas.particle.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+public interface ChannelHandler {
+
+    void handle(SelectionKey key) throws IOException;
+
+    void onError(Exception e);
+
+}
@@ -0,0 +1,131 @@
+package dev.xernas.particle.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+public class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    public CompletableFuture<SelectionKey> register(SelectableChannel channel, int ops, ChannelHandler handler) {
+        CompletableFuture<SelectionKey> registered = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                registered.complete(channel.register(selector, ops, handler));
+            } catch (ClosedChannelException e) {
+                registered.completeExceptionally(e);
+            }
+        });
+        return registered;
+    }
+
+    // The callback runs on this loop right after registering, before the channel is selected for the first time
+    public void register(SelectableChannel channel, int ops, ChannelHandler handler, Consumer<SelectionKey> registered) {
+        execute(() -> {
+            SelectionKey key;
+            try {
+                key = channel.register(selector, ops, handler);
+            } catch (ClosedChannelException e) {
+                handler.onError(e);
+                return;
+            }
+            registered.accept(key);
+        });
+    }
+
+    public int getRegisteredChannels() {
+        return selector.keys().size();
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                // Tasks queued from this thread don't wake the selector, so don't block while any are waiting
+                if (tasks.isEmpty()) selector.select();
+                else selector.selectNow();
+                wakeupPending.set(false);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ChannelHandler handler = (ChannelHandler) key.attachment();
+                    try {
+                        if (key.isValid()) handler.handle(key);
+                    } catch (Exception e) {
+                        handler.onError(e);
+                    }
+                }
+                // Includes whatever the handlers just queued, and what those tasks queue in turn
+                runTasks();
+            } catch (IOException e) {
+                running = false;
+            }
+        }
+
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException ignore) {}
+        }
+        try {
+            selector.close();
+        } catch (IOException ignore) {}
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
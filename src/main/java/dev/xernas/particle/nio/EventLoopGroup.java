@@ -0,0 +1,54 @@
+package dev.xernas.particle.nio;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventLoopGroup {
+
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+
+    public EventLoopGroup(int threads) throws IOException {
+        this(threads, "particle-loop");
+    }
+
+    public EventLoopGroup(int threads, String name) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Event loop group needs at least one thread");
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop(name + "-" + i);
+            loops[i].start();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, name + "-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public EventLoop next() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        scheduler.shutdownNow();
+        for (EventLoop loop : loops) loop.shutdown();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (EventLoop loop : loops) {
+            TimeUnit.NANOSECONDS.timedJoin(loop.getThread(), Math.max(1, deadline - System.nanoTime()));
+        }
+    }
+
+}
@@ -0,0 +1,391 @@
+package dev.xernas.particle.outbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+// Holds encoded messages for sessions that are away. The first bytes of each session stay on the heap, the rest goes to
+// shared memory-mapped segments where every record links to the next one of its session, so a session costs the same
+// heap whatever its backlog. Nothing survives a restart, session ids don't either.
+public class Outbox implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    // Length, next record, timestamp, session
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Long.BYTES + 2 * Long.BYTES;
+    private static final long NONE = -1;
+    private static final String SUFFIX = ".outbox";
+
+    private final Path directory;
+    private final long memoryBytesPerSession;
+    private final long maxBytesPerSession;
+    private final long retentionNanos;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final Map<UUID, Queue> queues = new HashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private long nextSegment = 0;
+    private long memoryBytes = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    public Outbox(Path directory, long memoryBytesPerSession, long maxBytesPerSession, long retention, TimeUnit unit) throws IOException {
+        this(directory, memoryBytesPerSession, maxBytesPerSession, retention, unit, DEFAULT_SEGMENT_SIZE, 64);
+    }
+
+    public Outbox(Path directory, long memoryBytesPerSession, long maxBytesPerSession, long retention, TimeUnit unit, int segmentSize, int maxSegments) throws IOException {
+        if (memoryBytesPerSession < 0 || maxBytesPerSession < 1) throw new IllegalArgumentException("Session limits must be positive");
+        if (segmentSize < 4096 || maxSegments < 2) throw new IllegalArgumentException("Need at least two segments of 4096 bytes");
+        this.directory = directory;
+        this.memoryBytesPerSession = memoryBytesPerSession;
+        this.maxBytesPerSession = maxBytesPerSession;
+        this.retentionNanos = unit.toNanos(retention);
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        // Left over from a previous run, the sessions they belonged to are gone
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).toList()) Files.delete(file);
+        }
+    }
+
+    // False when the message can't be kept, it is either larger than a session may hold or the disk budget is used up
+    public synchronized boolean offer(UUID sessionId, byte[] message) {
+        if (closed || message.length > maxBytesPerSession || HEADER_SIZE + message.length > segmentSize) {
+            dropped++;
+            return false;
+        }
+        Queue queue = queues.computeIfAbsent(sessionId, id -> new Queue());
+        // Retention by size drops the oldest messages first
+        while (queue.bytes() + message.length > maxBytesPerSession) pop(queue);
+        long now = System.nanoTime();
+        // Once something is on disk everything after it goes there too, or it would overtake
+        if (queue.diskHead == NONE && queue.memoryBytes + message.length <= memoryBytesPerSession) {
+            queue.memory.add(new Pending(message, now));
+            queue.memoryBytes += message.length;
+            memoryBytes += message.length;
+            return true;
+        }
+        if (append(sessionId, queue, message, now)) return true;
+        if (queue.isEmpty()) queues.remove(sessionId);
+        dropped++;
+        return false;
+    }
+
+    // Only queues when the session already has a backlog, so a fresh message can't overtake it
+    public synchronized boolean offerIfPending(UUID sessionId, byte[] message) {
+        if (!queues.containsKey(sessionId)) return false;
+        offer(sessionId, message);
+        return true;
+    }
+
+    // Hands messages over oldest first, each one is only removed once the sender took it. Stops at the first failure.
+    public int deliver(UUID sessionId, Sender sender) throws IOException {
+        int delivered = 0;
+        while (true) {
+            byte[] message;
+            Object head;
+            synchronized (this) {
+                Queue queue = queues.get(sessionId);
+                if (queue == null) return delivered;
+                if (queue.isEmpty()) {
+                    queues.remove(sessionId);
+                    return delivered;
+                }
+                message = peek(queue);
+                head = headOf(queue);
+            }
+            if (!sender.send(message)) return delivered;
+            synchronized (this) {
+                // Retention may have dropped it while it was being sent
+                Queue queue = queues.get(sessionId);
+                if (queue != null && !queue.isEmpty() && head.equals(headOf(queue))) pop(queue);
+            }
+            delivered++;
+        }
+    }
+
+    public synchronized boolean hasPending(UUID sessionId) {
+        return queues.containsKey(sessionId);
+    }
+
+    public synchronized void remove(UUID sessionId) {
+        Queue queue = queues.remove(sessionId);
+        if (queue == null) return;
+        while (!queue.isEmpty()) pop(queue);
+    }
+
+    // Drops messages older than the retention window and sessions the predicate no longer wants, then compacts
+    public synchronized void expire(Predicate<UUID> keep) {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<UUID, Queue>> iterator = queues.entrySet().iterator();
+        List<UUID> empty = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Queue> entry = iterator.next();
+            Queue queue = entry.getValue();
+            boolean kept = keep.test(entry.getKey());
+            while (!queue.isEmpty() && (!kept || now - timestampOf(queue) > retentionNanos)) pop(queue);
+            if (queue.isEmpty()) empty.add(entry.getKey());
+        }
+        empty.forEach(queues::remove);
+        compact();
+    }
+
+    // Moves the backlog of sessions living in mostly dead segments to the head segment so the old files can go
+    public synchronized int compact() {
+        int compacted = 0;
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == active() || segment.liveBytes * 4 > segment.position) continue;
+            Set<UUID> relocated = new HashSet<>();
+            int position = 0;
+            while (position < segment.position && segments.containsKey(segment.index)) {
+                int length = segment.buffer.getInt(position);
+                UUID sessionId = new UUID(segment.buffer.getLong(position + 20), segment.buffer.getLong(position + 28));
+                position += HEADER_SIZE + length;
+                Queue queue = queues.get(sessionId);
+                if (queue != null && relocated.add(sessionId) && !relocate(sessionId, queue)) return compacted;
+            }
+            compacted++;
+        }
+        return compacted;
+    }
+
+    private boolean relocate(UUID sessionId, Queue queue) {
+        long location = queue.diskHead;
+        long head = NONE, tail = NONE;
+        List<Long> moved = new ArrayList<>();
+        List<Long> copies = new ArrayList<>();
+        while (location != NONE) {
+            Segment segment = segmentOf(location);
+            int offset = offsetOf(location);
+            byte[] message = new byte[segment.buffer.getInt(offset)];
+            segment.buffer.get(offset + HEADER_SIZE, message);
+            long copy = write(sessionId, message, segment.buffer.getLong(offset + 12), tail);
+            if (copy == NONE) {
+                // Out of room, the session keeps its old chain
+                for (long dead : copies) release(dead);
+                return false;
+            }
+            copies.add(copy);
+            if (head == NONE) head = copy;
+            tail = copy;
+            moved.add(location);
+            location = segment.buffer.getLong(offset + 4);
+        }
+        queue.diskHead = head;
+        queue.diskTail = tail;
+        for (long old : moved) release(old);
+        return true;
+    }
+
+    private boolean append(UUID sessionId, Queue queue, byte[] message, long timestamp) {
+        long location = write(sessionId, message, timestamp, queue.diskTail);
+        if (location == NONE) return false;
+        if (queue.diskHead == NONE) queue.diskHead = location;
+        queue.diskTail = location;
+        queue.diskBytes += message.length;
+        return true;
+    }
+
+    // Writes a record and links it after previous, NONE when the disk budget is used up
+    private long write(UUID sessionId, byte[] message, long timestamp, long previous) {
+        Segment segment = active();
+        if (segment == null || segment.position + HEADER_SIZE + message.length > segmentSize) {
+            if (segments.size() >= maxSegments) return NONE;
+            try {
+                segment = openSegment();
+            } catch (IOException e) {
+                System.out.println("Failed to open outbox segment: " + e.getMessage());
+                return NONE;
+            }
+        }
+        int offset = segment.position;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(offset, message.length);
+        buffer.putLong(offset + 4, NONE);
+        buffer.putLong(offset + 12, timestamp);
+        buffer.putLong(offset + 20, sessionId.getMostSignificantBits());
+        buffer.putLong(offset + 28, sessionId.getLeastSignificantBits());
+        buffer.put(offset + HEADER_SIZE, message);
+        segment.position += HEADER_SIZE + message.length;
+        segment.liveBytes += HEADER_SIZE + message.length;
+        long location = (segment.index << 32) | offset;
+        if (previous != NONE) segmentOf(previous).buffer.putLong(offsetOf(previous) + 4, location);
+        return location;
+    }
+
+    private byte[] peek(Queue queue) {
+        if (!queue.memory.isEmpty()) return queue.memory.peek().message();
+        Segment segment = segmentOf(queue.diskHead);
+        int offset = offsetOf(queue.diskHead);
+        byte[] message = new byte[segment.buffer.getInt(offset)];
+        segment.buffer.get(offset + HEADER_SIZE, message);
+        return message;
+    }
+
+    private void pop(Queue queue) {
+        if (!queue.memory.isEmpty()) {
+            Pending pending = queue.memory.poll();
+            queue.memoryBytes -= pending.message().length;
+            memoryBytes -= pending.message().length;
+            return;
+        }
+        long head = queue.diskHead;
+        Segment segment = segmentOf(head);
+        int offset = offsetOf(head);
+        queue.diskBytes -= segment.buffer.getInt(offset);
+        long next = segment.buffer.getLong(offset + 4);
+        queue.diskHead = next;
+        if (next == NONE) queue.diskTail = NONE;
+        release(head);
+    }
+
+    private Object headOf(Queue queue) {
+        if (!queue.memory.isEmpty()) return queue.memory.peek();
+        return queue.diskHead;
+    }
+
+    private long timestampOf(Queue queue) {
+        if (!queue.memory.isEmpty()) return queue.memory.peek().timestamp();
+        return segmentOf(queue.diskHead).buffer.getLong(offsetOf(queue.diskHead) + 12);
+    }
+
+    private void release(long location) {
+        Segment segment = segmentOf(location);
+        segment.liveBytes -= HEADER_SIZE + segment.buffer.getInt(offsetOf(location));
+        if (segment.liveBytes > 0 || segment == active()) return;
+        segments.remove(segment.index);
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            System.out.println("Failed to delete outbox segment: " + e.getMessage());
+        }
+    }
+
+    private Segment openSegment() throws IOException {
+        long index = nextSegment++;
+        Path path = directory.resolve(String.format("%020d", index) + SUFFIX);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Segment segment = new Segment(index, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+            Segment previous = active();
+            segments.put(index, segment);
+            // The old head segment may have been emptied while it was still being written
+            if (previous != null && previous.liveBytes == 0) {
+                segments.remove(previous.index);
+                Files.deleteIfExists(previous.path);
+            }
+            return segment;
+        }
+    }
+
+    private Segment active() {
+        return segments.isEmpty() ? null : segments.lastEntry().getValue();
+    }
+
+    private Segment segmentOf(long location) {
+        return segments.get(location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    public synchronized long getPendingBytes(UUID sessionId) {
+        Queue queue = queues.get(sessionId);
+        return queue == null ? 0 : queue.bytes();
+    }
+
+    public synchronized int getSessionCount() {
+        return queues.size();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) bytes += segment.liveBytes;
+        return bytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        queues.clear();
+        memoryBytes = 0;
+        for (Segment segment : segments.values()) Files.deleteIfExists(segment.path);
+        segments.clear();
+    }
+
+    public interface Sender {
+
+        // False when the message could not be written, it is kept and handed over again next time
+        boolean send(byte[] message) throws IOException;
+
+    }
+
+    private record Pending(byte[] message, long timestamp) {}
+
+    private static class Queue {
+
+        private final ArrayDeque<Pending> memory = new ArrayDeque<>();
+        private long memoryBytes = 0;
+        private long diskHead = NONE;
+        private long diskTail = NONE;
+        private long diskBytes = 0;
+
+        private long bytes() {
+            return memoryBytes + diskBytes;
+        }
+
+        private boolean isEmpty() {
+            return memory.isEmpty() && diskHead == NONE;
+        }
+
+    }
+
+    private static class Segment {
+
+        private final long index;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int position = 0;
+        private long liveBytes = 0;
+
+        private Segment(long index, Path path, MappedByteBuffer buffer) {
+            this.index = index;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+    }
+
+}
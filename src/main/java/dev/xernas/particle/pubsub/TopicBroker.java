@@ -0,0 +1,158 @@
+package dev.xernas.particle.pubsub;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.server.Server;
+import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.utils.IntSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class TopicBroker<I, O> {
+
+    private final Server<I, O> server;
+    private final MessageIO<I, O> messageIO;
+    private final TopicTrie trie = new TopicTrie();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Sessions get a compact index so the trie stores primitive sets instead of UUIDs
+    private final Map<UUID, Integer> indexes = new HashMap<>();
+    private final List<UUID> sessions = new ArrayList<>();
+    private final List<Set<String>> patterns = new ArrayList<>();
+    private int[] freeIndexes = new int[8];
+    private int freeCount = 0;
+
+    public TopicBroker(Server<I, O> server, MessageIO<I, O> messageIO) {
+        this.server = server;
+        this.messageIO = messageIO;
+    }
+
+    public boolean subscribe(UUID clientId, String pattern) {
+        lock.writeLock().lock();
+        try {
+            int index = indexOf(clientId);
+            if (!patterns.get(index).add(pattern)) return false;
+            return trie.add(pattern, index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean unsubscribe(UUID clientId, String pattern) {
+        lock.writeLock().lock();
+        try {
+            Integer index = indexes.get(clientId);
+            if (index == null || !patterns.get(index).remove(pattern)) return false;
+            trie.remove(pattern, index);
+            if (patterns.get(index).isEmpty()) release(clientId, index);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Call when a session ends for good, e.g. from onClientConnectionEnd
+    public void unsubscribeAll(UUID clientId) {
+        lock.writeLock().lock();
+        try {
+            Integer index = indexes.get(clientId);
+            if (index == null) return;
+            for (String pattern : patterns.get(index)) trie.remove(pattern, index);
+            patterns.get(index).clear();
+            release(clientId, index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Set<String> getSubscriptions(UUID clientId) {
+        lock.readLock().lock();
+        try {
+            Integer index = indexes.get(clientId);
+            return index == null ? Set.of() : Set.copyOf(patterns.get(index));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<UUID> getSubscribers(String topic) {
+        lock.readLock().lock();
+        try {
+            IntSet matched = new IntSet();
+            trie.match(topic, matched);
+            List<UUID> subscribers = new ArrayList<>(matched.size());
+            matched.forEach(index -> subscribers.add(sessions.get(index)));
+            return subscribers;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Encodes the message once and writes the same bytes to every matching subscriber, returns how many got it
+    public int publish(String topic, O message) throws ServerException {
+        List<UUID> subscribers = getSubscribers(topic);
+        if (subscribers.isEmpty()) return 0;
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try {
+            messageIO.write(message, new Particle(new DataOutputStream(encoded)));
+        } catch (Particle.WriteException e) {
+            throw new ServerException("Failed to encode message for " + topic, e);
+        }
+        byte[] bytes = encoded.toByteArray();
+
+        int delivered = 0;
+        for (UUID clientId : subscribers) {
+            try {
+                if (server.sendBytes(clientId, bytes)) delivered++;
+            } catch (ServerException e) {
+                // One broken connection shouldn't stop the fan-out
+                System.out.println(e.getMessage());
+            }
+        }
+        return delivered;
+    }
+
+    public int getSessionCount() {
+        lock.readLock().lock();
+        try {
+            return indexes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int indexOf(UUID clientId) {
+        Integer index = indexes.get(clientId);
+        if (index != null) return index;
+        if (freeCount > 0) {
+            index = freeIndexes[--freeCount];
+            sessions.set(index, clientId);
+        } else {
+            index = sessions.size();
+            sessions.add(clientId);
+            patterns.add(new HashSet<>());
+        }
+        indexes.put(clientId, index);
+        return index;
+    }
+
+    private void release(UUID clientId, int index) {
+        indexes.remove(clientId);
+        sessions.set(index, null);
+        if (freeCount == freeIndexes.length) freeIndexes = Arrays.copyOf(freeIndexes, freeCount * 2);
+        freeIndexes[freeCount++] = index;
+    }
+
+}
@@ -0,0 +1,124 @@
+package dev.xernas.particle.pubsub;
+
+import dev.xernas.particle.utils.IntSet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Subscription patterns split on '/', '+' matches exactly one level and a trailing '#' matches any remaining levels
+public class TopicTrie {
+
+    public static final char SEPARATOR = '/';
+    public static final String SINGLE_LEVEL = "+";
+    public static final String MULTI_LEVEL = "#";
+
+    private final Node root = new Node();
+
+    public boolean add(String pattern, int subscriber) {
+        return walk(pattern, true).subscribers.add(subscriber);
+    }
+
+    public boolean remove(String pattern, int subscriber) {
+        Node node = walk(pattern, false);
+        if (node == null || !node.subscribers.remove(subscriber)) return false;
+        prune(root, pattern, 0);
+        return true;
+    }
+
+    public void match(String topic, IntSet result) {
+        if (topic.indexOf('+') >= 0 || topic.indexOf('#') >= 0) throw new IllegalArgumentException("Published topics can't contain wildcards: " + topic);
+        match(root, topic, 0, result);
+    }
+
+    public boolean isEmpty() {
+        return root.isEmpty();
+    }
+
+    private void match(Node node, String topic, int start, IntSet result) {
+        if (node.multi != null) result.addAll(node.multi.subscribers);
+        if (start > topic.length()) {
+            result.addAll(node.subscribers);
+            return;
+        }
+        int end = levelEnd(topic, start);
+        if (node.children != null) {
+            Node child = node.children.get(topic.substring(start, end));
+            if (child != null) match(child, topic, end + 1, result);
+        }
+        if (node.single != null) match(node.single, topic, end + 1, result);
+    }
+
+    private Node walk(String pattern, boolean create) {
+        Node node = root;
+        int start = 0;
+        while (start <= pattern.length()) {
+            int end = levelEnd(pattern, start);
+            String level = pattern.substring(start, end);
+            if (level.equals(MULTI_LEVEL) && end != pattern.length()) throw new IllegalArgumentException("'#' must be the last level: " + pattern);
+            Node next = node.child(level);
+            if (next == null) {
+                if (!create) return null;
+                next = node.createChild(level);
+            }
+            node = next;
+            start = end + 1;
+        }
+        return node;
+    }
+
+    // Drops the branch nodes left empty by a removal
+    private boolean prune(Node node, String pattern, int start) {
+        if (start <= pattern.length()) {
+            int end = levelEnd(pattern, start);
+            String level = pattern.substring(start, end);
+            Node child = node.child(level);
+            if (child != null && prune(child, pattern, end + 1)) node.removeChild(level);
+        }
+        return node != root && node.isEmpty();
+    }
+
+    private static int levelEnd(String value, int start) {
+        int end = value.indexOf(SEPARATOR, start);
+        return end < 0 ? value.length() : end;
+    }
+
+    private static class Node {
+
+        private final IntSet subscribers = new IntSet(4);
+        private Map<String, Node> children;
+        private Node single;
+        private Node multi;
+
+        private Node child(String level) {
+            if (level.equals(SINGLE_LEVEL)) return single;
+            if (level.equals(MULTI_LEVEL)) return multi;
+            return children == null ? null : children.get(level);
+        }
+
+        private Node createChild(String level) {
+            Node node = new Node();
+            if (level.equals(SINGLE_LEVEL)) single = node;
+            else if (level.equals(MULTI_LEVEL)) multi = node;
+            else {
+                if (children == null) children = new HashMap<>();
+                children.put(level, node);
+            }
+            return node;
+        }
+
+        private void removeChild(String level) {
+            if (level.equals(SINGLE_LEVEL)) single = null;
+            else if (level.equals(MULTI_LEVEL)) multi = null;
+            else if (children != null) {
+                children.remove(level);
+                if (children.isEmpty()) children = null;
+            }
+        }
+
+        private boolean isEmpty() {
+            return subscribers.isEmpty() && children == null && single == null && multi == null;
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package dev.xernas.particle.ratelimit;
+
+import dev.xernas.particle.utils.CoarseClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket kept as a single theoretical arrival time (GCRA), so every update is one CAS
+public class TokenBucket {
+
+    private final double tokensPerSecond;
+    private final long burst;
+    private final long nanosPerToken;
+    private final long toleranceNanos;
+    private final CoarseClock clock;
+    private final AtomicLong arrival;
+
+    public TokenBucket(double tokensPerSecond, long burst) {
+        this(tokensPerSecond, burst, CoarseClock.shared());
+    }
+
+    public TokenBucket(double tokensPerSecond, long burst, CoarseClock clock) {
+        if (tokensPerSecond <= 0 || burst < 1) throw new IllegalArgumentException("Rate must be positive and burst at least 1");
+        this.tokensPerSecond = tokensPerSecond;
+        this.burst = burst;
+        this.nanosPerToken = Math.max(1, Math.round(1_000_000_000L / tokensPerSecond));
+        this.toleranceNanos = burst * nanosPerToken;
+        this.clock = clock;
+        // Starts full
+        this.arrival = new AtomicLong(clock.nanoTime());
+    }
+
+    public boolean tryAcquire(long permits) {
+        long cost = permits * nanosPerToken;
+        while (true) {
+            long now = clock.nanoTime();
+            long current = arrival.get();
+            long next = Math.max(current, now) + cost;
+            // A full bucket lets one oversized request through and goes into debt
+            if (next - now > toleranceNanos && current > now) return false;
+            if (arrival.compareAndSet(current, next)) return true;
+        }
+    }
+
+    // Always takes the permits, returns how long the caller has to wait before using them
+    public long reserve(long permits) {
+        long cost = permits * nanosPerToken;
+        while (true) {
+            long now = clock.nanoTime();
+            long current = arrival.get();
+            long next = Math.max(current, now) + cost;
+            if (arrival.compareAndSet(current, next)) return Math.max(0, next - now - toleranceNanos);
+        }
+    }
+
+    public double getAvailableTokens() {
+        long debt = arrival.get() - clock.nanoTime();
+        if (debt <= 0) return burst;
+        return Math.max(0, (toleranceNanos - debt) / (double) nanosPerToken);
+    }
+
+    public boolean isFull() {
+        return arrival.get() <= clock.nanoTime();
+    }
+
+    public double getTokensPerSecond() {
+        return tokensPerSecond;
+    }
+
+    public long getBurst() {
+        return burst;
+    }
+
+}
@@ -0,0 +1,186 @@
+package dev.xernas.particle.ratelimit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Sessions are keyed by their UUID, on UDP each remote address holds one session
+public class TrafficShaper {
+
+    private final Limit messageLimit;
+    private final Limit byteLimit;
+    private final Action action;
+    private final TokenBucket acceptBucket;
+    private final Map<Object, SessionLimiter> sessions = new ConcurrentHashMap<>();
+
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LongAdder rejectedAccepts = new LongAdder();
+
+    public TrafficShaper(Limit acceptLimit, Limit messageLimit, Limit byteLimit, Action action) {
+        this.messageLimit = messageLimit;
+        this.byteLimit = byteLimit;
+        this.action = action;
+        this.acceptBucket = acceptLimit == null ? null : acceptLimit.toBucket();
+    }
+
+    public Verdict admitAccept(boolean canDelay) {
+        if (acceptBucket == null) return Verdict.PASS;
+        if (action == Action.DELAY && canDelay) {
+            delay(acceptBucket.reserve(1), null);
+            return Verdict.PASS;
+        }
+        if (acceptBucket.tryAcquire(1)) return Verdict.PASS;
+        rejectedAccepts.increment();
+        return Verdict.DROP;
+    }
+
+    // Delaying parks the calling thread, pass canDelay = false from loops shared by several sessions
+    public Verdict admit(Object session, int bytes, boolean canDelay) {
+        if (messageLimit == null && byteLimit == null) return Verdict.PASS;
+        SessionLimiter limiter = sessions.computeIfAbsent(session, key -> new SessionLimiter(messageLimit, byteLimit));
+
+        if (action == Action.DELAY && canDelay) {
+            delay(limiter.reserve(bytes), limiter);
+            passed.increment();
+            return Verdict.PASS;
+        }
+
+        boolean allowed = (limiter.messages == null || limiter.messages.tryAcquire(1)) && (limiter.bytes == null || limiter.bytes.tryAcquire(bytes));
+        if (allowed) {
+            passed.increment();
+            return Verdict.PASS;
+        }
+        limiter.throttled.increment();
+        if (action == Action.DISCONNECT) {
+            disconnected.increment();
+            return Verdict.DISCONNECT;
+        }
+        dropped.increment();
+        return Verdict.DROP;
+    }
+
+    // DELAY for loops shared by several sessions: nothing parks, the caller holds the message back for the returned nanos
+    public long reserve(Object session, int bytes) {
+        if (messageLimit == null && byteLimit == null) return 0;
+        SessionLimiter limiter = sessions.computeIfAbsent(session, key -> new SessionLimiter(messageLimit, byteLimit));
+        long wait = limiter.reserve(bytes);
+        passed.increment();
+        if (wait > 0) {
+            delayed.increment();
+            limiter.throttled.increment();
+        }
+        return wait;
+    }
+
+    public void remove(Object session) {
+        sessions.remove(session);
+    }
+
+    // Forgets sessions whose buckets refilled completely, they would start full again anyway
+    public int evictIdle() {
+        int evicted = 0;
+        for (Map.Entry<Object, SessionLimiter> entry : sessions.entrySet()) {
+            if (entry.getValue().isIdle() && sessions.remove(entry.getKey(), entry.getValue())) evicted++;
+        }
+        return evicted;
+    }
+
+    public long getThrottledCount(Object session) {
+        SessionLimiter limiter = sessions.get(session);
+        return limiter == null ? 0 : limiter.throttled.sum();
+    }
+
+    public Map<Object, Long> getThrottledSessions() {
+        Map<Object, Long> throttled = new HashMap<>();
+        sessions.forEach((session, limiter) -> {
+            long count = limiter.throttled.sum();
+            if (count > 0) throttled.put(session, count);
+        });
+        return throttled;
+    }
+
+    public long getPassed() {
+        return passed.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getDelayed() {
+        return delayed.sum();
+    }
+
+    public long getDisconnected() {
+        return disconnected.sum();
+    }
+
+    public long getRejectedAccepts() {
+        return rejectedAccepts.sum();
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    private void delay(long waitNanos, SessionLimiter limiter) {
+        if (waitNanos <= 0) return;
+        delayed.increment();
+        if (limiter != null) limiter.throttled.increment();
+        LockSupport.parkNanos(waitNanos);
+    }
+
+    public enum Action {
+
+        DROP,
+        DELAY,
+        DISCONNECT
+
+    }
+
+    public enum Verdict {
+
+        PASS,
+        DROP,
+        DISCONNECT
+
+    }
+
+    public record Limit(double perSecond, long burst) {
+
+        private TokenBucket toBucket() {
+            return new TokenBucket(perSecond, burst);
+        }
+
+    }
+
+    private static class SessionLimiter {
+
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+        private final LongAdder throttled = new LongAdder();
+
+        private SessionLimiter(Limit messageLimit, Limit byteLimit) {
+            this.messages = messageLimit == null ? null : messageLimit.toBucket();
+            this.bytes = byteLimit == null ? null : byteLimit.toBucket();
+        }
+
+        private long reserve(int bytes) {
+            long wait = 0;
+            if (messages != null) wait = messages.reserve(1);
+            if (this.bytes != null) wait = Math.max(wait, this.bytes.reserve(bytes));
+            return wait;
+        }
+
+        private boolean isIdle() {
+            return (messages == null || messages.isFull()) && (bytes == null || bytes.isFull());
+        }
+
+    }
+
+}
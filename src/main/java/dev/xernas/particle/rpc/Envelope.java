@@ -0,0 +1,51 @@
+package dev.xernas.particle.rpc;
+
+public record Envelope<T>(Kind kind, long correlationId, T payload) {
+
+    public static <T> Envelope<T> oneWay(T payload) {
+        return new Envelope<>(Kind.ONE_WAY, 0, payload);
+    }
+
+    public static <T> Envelope<T> request(long correlationId, T payload) {
+        return new Envelope<>(Kind.REQUEST, correlationId, payload);
+    }
+
+    public <R> Envelope<R> reply(R payload) {
+        if (kind != Kind.REQUEST) throw new IllegalStateException("Only requests can be replied to");
+        return new Envelope<>(Kind.RESPONSE, correlationId, payload);
+    }
+
+    public boolean isRequest() {
+        return kind == Kind.REQUEST;
+    }
+
+    public boolean isResponse() {
+        return kind == Kind.RESPONSE;
+    }
+
+    public enum Kind {
+
+        ONE_WAY(1),
+        REQUEST(2),
+        RESPONSE(3);
+
+        private final int id;
+
+        Kind(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public static Kind fromId(int id) {
+            for (Kind kind : values()) {
+                if (kind.id == id) return kind;
+            }
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,33 @@
+package dev.xernas.particle.rpc;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.message.MessageIO;
+
+// Frame: kind byte, correlation id (requests and responses only), then the wrapped message
+public class EnvelopeMessageIO<I, O> implements MessageIO<Envelope<I>, Envelope<O>> {
+
+    private final MessageIO<I, O> payloadIO;
+
+    public EnvelopeMessageIO(MessageIO<I, O> payloadIO) {
+        this.payloadIO = payloadIO;
+    }
+
+    @Override
+    public Envelope<I> read(Particle particle) throws Particle.ReadException {
+        int kindId = particle.readByte(false);
+        // Pings are written as a zero int, each zero byte is skipped on its own
+        if (kindId == 0) return null;
+        Envelope.Kind kind = Envelope.Kind.fromId(kindId);
+        if (kind == null) throw new Particle.ReadException("Unknown envelope kind " + kindId);
+        long correlationId = kind == Envelope.Kind.ONE_WAY ? 0 : particle.readLong();
+        return new Envelope<>(kind, correlationId, payloadIO.read(particle));
+    }
+
+    @Override
+    public void write(Envelope<O> envelope, Particle particle) throws Particle.WriteException {
+        particle.writeByte(envelope.kind().getId());
+        if (envelope.kind() != Envelope.Kind.ONE_WAY) particle.writeLong(envelope.correlationId());
+        payloadIO.write(envelope.payload(), particle);
+    }
+
+}
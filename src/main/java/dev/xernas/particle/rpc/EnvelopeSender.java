@@ -0,0 +1,10 @@
+package dev.xernas.particle.rpc;
+
+import dev.xernas.particle.ParticleException;
+
+@FunctionalInterface
+public interface EnvelopeSender<T> {
+
+    void send(Envelope<T> envelope) throws ParticleException;
+
+}
@@ -0,0 +1,88 @@
+package dev.xernas.particle.rpc;
+
+import dev.xernas.particle.ParticleException;
+import dev.xernas.particle.client.Client;
+import dev.xernas.particle.server.Server;
+import dev.xernas.particle.utils.TimerWheel;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RequestTracker<Req, Res> {
+
+    private final Map<Long, Pending<Res>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final TimerWheel timer;
+
+    public RequestTracker() {
+        this(TimerWheel.shared());
+    }
+
+    public RequestTracker(TimerWheel timer) {
+        this.timer = timer;
+    }
+
+    public CompletableFuture<Res> request(Client<Envelope<Res>, Envelope<Req>> client, Req request, long timeout, TimeUnit unit) {
+        return request(client::send, request, timeout, unit);
+    }
+
+    public CompletableFuture<Res> request(Server<Envelope<Res>, Envelope<Req>> server, UUID clientId, Req request, long timeout, TimeUnit unit) {
+        return request(envelope -> server.send(clientId, envelope), request, timeout, unit);
+    }
+
+    public CompletableFuture<Res> request(EnvelopeSender<Req> sender, Req request, long timeout, TimeUnit unit) {
+        long id = nextId.incrementAndGet();
+        CompletableFuture<Res> future = new CompletableFuture<>();
+        TimerWheel.Timeout deadline = timer.schedule(() -> {
+            if (pending.remove(id) != null) future.completeExceptionally(new TimeoutException("Request " + id + " timed out"));
+        }, timeout, unit);
+        pending.put(id, new Pending<>(future, deadline));
+        // The deadline may have passed before the request was registered
+        if (deadline.isExpired() && pending.remove(id) != null) {
+            future.completeExceptionally(new TimeoutException("Request " + id + " timed out"));
+            return future;
+        }
+
+        try {
+            sender.send(Envelope.request(id, request));
+        } catch (ParticleException e) {
+            if (pending.remove(id) != null) {
+                deadline.cancel();
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    // Call from onMessage, returns false when the envelope is not a pending response
+    public boolean complete(Envelope<Res> envelope) {
+        if (envelope == null || !envelope.isResponse()) return false;
+        Pending<Res> request = pending.remove(envelope.correlationId());
+        if (request == null) return false;
+        request.deadline.cancel();
+        request.future.complete(envelope.payload());
+        return true;
+    }
+
+    public void failAll(Throwable cause) {
+        for (Long id : pending.keySet()) {
+            Pending<Res> request = pending.remove(id);
+            if (request == null) continue;
+            request.deadline.cancel();
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private record Pending<Res>(CompletableFuture<Res> future, TimerWheel.Timeout deadline) {
+    }
+
+}
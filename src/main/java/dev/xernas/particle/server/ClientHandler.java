@@ -3,9 +3,19 @@ package dev.xernas.particle.server;
 import dev.xernas.particle.Particle;
 import dev.xernas.particle.client.Client;
 import dev.xernas.particle.client.TCPClient;
+import dev.xernas.particle.client.exceptions.ClientException;
+import dev.xernas.particle.jfr.ConnectEvent;
+import dev.xernas.particle.jfr.DisconnectEvent;
+import dev.xernas.particle.jfr.MessageDecodeEvent;
+import dev.xernas.particle.jfr.SlowHandlerEvent;
+import dev.xernas.particle.journal.Journal;
 import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.metrics.Metrics;
+import dev.xernas.particle.ratelimit.TrafficShaper;
 import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.tick.TickEngine;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.UUID;
 
@@ -23,16 +33,91 @@ public class ClientHandler<I, O> implements Runnable {
 
     @Override
     public void run() {
+        UUID clientId = null;
         try {
-            UUID clientId = server.newConnectedClient(client);
-            server.onClientConnect(clientId, particle);
+            SessionResumption<I, O> resumption = server.getSessionResumption();
+            long offset = 0;
+            boolean resumed = false;
+            if (resumption == null) {
+                clientId = server.newConnectedClient(client);
+                server.onClientConnect(clientId, particle);
+            } else {
+                SessionResumption.Attachment attachment = resumption.attach(server, client, particle);
+                clientId = attachment.clientId();
+                offset = attachment.offset() - client.getBytesReceived();
+                if (attachment.resumed()) {
+                    resumed = true;
+                    server.deliverPending(clientId);
+                    server.onClientResume(clientId, particle);
+                }
+                else server.onClientConnect(clientId, particle);
+            }
+            long connectedAt = System.nanoTime();
+            ConnectEvent connectEvent = new ConnectEvent();
+            if (connectEvent.shouldCommit()) {
+                connectEvent.sessionId = clientId.toString();
+                if (client instanceof TCPClient<I, O> tcp) connectEvent.remoteAddress = tcp.getIPAddress();
+                connectEvent.resumed = resumed;
+                connectEvent.commit();
+            }
             MessageIO<I, O> messageIO = server.getMessageIO(clientId);
+            Metrics metrics = server.getMetrics();
+            TrafficShaper shaper = server.getTrafficShaper();
+            TickEngine<I, O> tickEngine = server.getTickEngine();
+            Journal journal = server.getJournal();
+            ByteArrayOutputStream frame = null;
+            if (journal != null && client instanceof TCPClient<I, O> tcp) {
+                frame = new ByteArrayOutputStream(256);
+                tcp.tapInput(frame);
+            }
+            long received = client.getBytesReceived();
+            metrics.onBytesIn(clientId, received);
             try {
-                while (client.isConnected()) {
+                while (client.isConnected() && !Thread.currentThread().isInterrupted()) {
                     try {
                         if (particle.in().available() > 0) {
+                            long start = metrics.isEnabled() ? System.nanoTime() : 0;
+                            long before = client.getBytesReceived();
+                            if (frame != null) frame.reset();
+                            MessageDecodeEvent decodeEvent = new MessageDecodeEvent();
+                            decodeEvent.begin();
                             I message = messageIO.read(particle);
-                            if (message != null) server.onMessage(clientId, message, particle);
+                            decodeEvent.end();
+                            if (decodeEvent.shouldCommit()) {
+                                decodeEvent.sessionId = clientId.toString();
+                                if (message != null) decodeEvent.messageType = message.getClass().getName();
+                                decodeEvent.bytes = client.getBytesReceived() - before;
+                                decodeEvent.commit();
+                            }
+                            if (metrics.isEnabled()) {
+                                metrics.onMessageIn(clientId, System.nanoTime() - start);
+                                metrics.onBytesIn(clientId, client.getBytesReceived() - received);
+                                received = client.getBytesReceived();
+                            }
+                            if (resumption != null) resumption.received(clientId, offset + client.getBytesReceived());
+                            if (message == null) continue;
+                            if (frame != null) journal.append(Journal.INBOUND, clientId, frame.toByteArray());
+                            if (shaper != null) {
+                                TrafficShaper.Verdict verdict = shaper.admit(clientId, (int) (client.getBytesReceived() - before), true);
+                                if (verdict == TrafficShaper.Verdict.DROP) continue;
+                                if (verdict == TrafficShaper.Verdict.DISCONNECT) {
+                                    server.forceDisconnect(clientId);
+                                    break;
+                                }
+                            }
+                            if (tickEngine != null) {
+                                tickEngine.offer(clientId, message, particle);
+                                continue;
+                            }
+                            SlowHandlerEvent handlerEvent = new SlowHandlerEvent();
+                            handlerEvent.begin();
+                            server.onMessage(clientId, message, particle);
+                            handlerEvent.end();
+                            if (handlerEvent.shouldCommit()) {
+                                handlerEvent.sessionId = clientId.toString();
+                                handlerEvent.messageType = message.getClass().getName();
+                                handlerEvent.commit();
+                            }
                         }
                     } catch (Particle.ReadException e) {
                         if (TCPServer.isDebugEnabled()) {
@@ -44,9 +129,44 @@ public class ClientHandler<I, O> implements Runnable {
                     }
                 }
             } finally {
-                Client<I, O> disconnectedClient = server.removeConnectedClient(clientId);
-                if (disconnectedClient != null) server.onClientConnectionEnd(clientId, disconnectedClient);
+                boolean detached = false;
+                if (resumption == null) {
+                    Client<I, O> disconnectedClient = server.removeConnectedClient(clientId);
+                    if (disconnectedClient != null) server.onClientConnectionEnd(clientId, disconnectedClient);
+                } else if (server.removeConnectedClient(clientId, client)) {
+                    // Keep the session around until the client resumes it or the window runs out
+                    if (server.isRunning()) {
+                        resumption.detach(clientId, client);
+                        detached = true;
+                    } else {
+                        resumption.end(clientId);
+                        server.onClientConnectionEnd(clientId, client);
+                    }
+                }
+                DisconnectEvent disconnectEvent = new DisconnectEvent();
+                if (disconnectEvent.shouldCommit()) {
+                    disconnectEvent.sessionId = clientId.toString();
+                    disconnectEvent.connectedFor = System.nanoTime() - connectedAt;
+                    disconnectEvent.bytesReceived = client.getBytesReceived();
+                    disconnectEvent.bytesSent = client.getBytesSent();
+                    disconnectEvent.detached = detached;
+                    disconnectEvent.commit();
+                }
             }
+        } catch (ServerException e) {
+            System.out.println(e.getMessage());
+            // A failed handshake or connect callback leaves nothing else to close the connection
+            if (clientId != null) release(clientId);
+            try {
+                if (client.isConnected()) client.disconnect();
+            } catch (ClientException ignore) {}
+        }
+    }
+
+    private void release(UUID clientId) {
+        try {
+            SessionResumption<I, O> resumption = server.getSessionResumption();
+            if (server.removeConnectedClient(clientId, client) && resumption != null) resumption.end(clientId);
         } catch (ServerException e) {
             System.out.println(e.getMessage());
         }
@@ -0,0 +1,371 @@
+package dev.xernas.particle.server;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.client.Client;
+import dev.xernas.particle.client.exceptions.ClientException;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.metrics.Metrics;
+import dev.xernas.particle.nio.ChannelHandler;
+import dev.xernas.particle.nio.EventLoop;
+import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.tasks.Task;
+import dev.xernas.particle.utils.BufferPool;
+import dev.xernas.particle.utils.ByteBufferInputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.UUID;
+
+// Server side of one NioTCPServer connection. An idle session is a channel, a key and a few counters: the read buffer
+// is only held while a frame is partially received and the write backlog only while the socket is full.
+public final class NioSession<I, O> implements Client<I, O>, ChannelHandler {
+
+    private static final byte[] PING = new byte[Integer.BYTES];
+    private static final int MAX_READ_BUFFER = 16 * 1024 * 1024;
+
+    private final NioTCPServer<I, O> server;
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private SelectionKey key;
+    private UUID id;
+    private MessageIO<I, O> messageIO;
+
+    // Owned by the event loop
+    private ByteBuffer inbound;
+    private long bytesReceived;
+
+    // Guarded by this
+    private ArrayDeque<ByteBuffer> outbound;
+    private long bytesSent;
+    private boolean flushScheduled;
+    private volatile boolean closed;
+
+    NioSession(NioTCPServer<I, O> server, SocketChannel channel, EventLoop loop) {
+        this.server = server;
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    // Called on the event loop once the channel is registered, before its first read and before it is published
+    void opened(SelectionKey key, UUID id, MessageIO<I, O> messageIO) {
+        this.key = key;
+        this.id = id;
+        this.messageIO = messageIO;
+    }
+
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        if (key.isWritable()) flush();
+        if (key.isValid() && key.isReadable()) read();
+    }
+
+    @Override
+    public void onError(Exception e) {
+        if (TCPServer.isDebugEnabled()) e.printStackTrace();
+        close();
+    }
+
+    private void read() throws IOException {
+        BufferPool buffers = server.getBufferPool();
+        ByteBuffer buffer = inbound != null ? inbound : buffers.acquire();
+        inbound = buffer;
+        int read = channel.read(buffer);
+        if (read == -1) {
+            close();
+            return;
+        }
+        bytesReceived += read;
+        Metrics metrics = server.getMetrics();
+        metrics.onBytesIn(id, read);
+
+        buffer.flip();
+        Particle particle = new Particle(new DataInputStream(new ByteBufferInputStream(buffer)), new DataOutputStream(new FrameOutputStream()));
+        while (buffer.hasRemaining() && !closed) {
+            int start = buffer.position();
+            long decodeStart = metrics.isEnabled() ? System.nanoTime() : 0;
+            I message;
+            try {
+                message = messageIO.read(particle);
+            } catch (Particle.ReadException e) {
+                if (!(e.getCause() instanceof EOFException)) {
+                    if (TCPServer.isDebugEnabled()) System.out.println("Failed to read message: " + e.getMessage());
+                    close();
+                    return;
+                }
+                // Partial message, wait for more bytes
+                buffer.position(start);
+                break;
+            }
+            if (buffer.position() == start) break;
+            if (metrics.isEnabled()) metrics.onMessageIn(id, System.nanoTime() - decodeStart);
+            if (message == null) continue;
+            try {
+                server.onMessage(id, message, particle);
+            } catch (ServerException e) {
+                System.out.println(e.getMessage());
+                close();
+                return;
+            } finally {
+                flushQuietly(particle);
+            }
+        }
+        if (closed) return;
+        buffer.compact();
+
+        // Nothing left over, the buffer goes back to the pool until the next read
+        if (buffer.position() == 0) {
+            buffers.release(buffer);
+            inbound = null;
+        } else if (!buffer.hasRemaining()) {
+            if (buffer.capacity() >= MAX_READ_BUFFER) throw new IOException("Message exceeds " + MAX_READ_BUFFER + " bytes");
+            ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            buffer.flip();
+            grown.put(buffer);
+            buffers.release(buffer);
+            inbound = grown;
+        }
+    }
+
+    // Writes straight to the socket from the calling thread, only what the socket cannot take is copied
+    boolean write(byte[] bytes, int offset, int length) {
+        synchronized (this) {
+            if (closed) return false;
+            if (outbound == null) {
+                ByteBuffer source = ByteBuffer.wrap(bytes, offset, length);
+                try {
+                    bytesSent += channel.write(source);
+                } catch (IOException e) {
+                    close();
+                    return false;
+                }
+                if (!source.hasRemaining()) return true;
+                outbound = new ArrayDeque<>();
+                offset = source.position();
+                length = source.remaining();
+            }
+            append(bytes, offset, length);
+            if (flushScheduled) return true;
+            flushScheduled = true;
+        }
+        loop.execute(this::flushSafely);
+        return true;
+    }
+
+    // Fills the last pooled buffer before taking another one, the caller holds the lock
+    private void append(byte[] bytes, int offset, int length) {
+        BufferPool buffers = server.getBufferPool();
+        while (length > 0) {
+            ByteBuffer last = outbound.peekLast();
+            if (last == null || last.limit() == last.capacity()) {
+                last = buffers.acquire().flip();
+                outbound.add(last);
+            }
+            int position = last.position();
+            int count = Math.min(length, last.capacity() - last.limit());
+            last.position(last.limit()).limit(last.limit() + count);
+            last.put(bytes, offset, count);
+            last.position(position);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    private void flush() throws IOException {
+        if (key == null || !key.isValid()) return;
+        synchronized (this) {
+            flushScheduled = false;
+            if (outbound == null) return;
+            BufferPool buffers = server.getBufferPool();
+            while (!outbound.isEmpty()) {
+                ByteBuffer buffer = outbound.peek();
+                bytesSent += channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                buffers.release(outbound.poll());
+            }
+            outbound = null;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    void close() {
+        if (!loop.inEventLoop()) {
+            loop.execute(this::close);
+            return;
+        }
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            BufferPool buffers = server.getBufferPool();
+            if (outbound != null) outbound.forEach(buffers::release);
+            outbound = null;
+        }
+        server.getBufferPool().release(inbound);
+        inbound = null;
+        try {
+            channel.close();
+        } catch (IOException ignore) {}
+        if (id != null) server.sessionClosed(id, this);
+    }
+
+    public synchronized boolean hasPendingWrites() {
+        return outbound != null;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public void connect() throws ClientException {
+        throw new ClientException("Sessions are accepted by the server");
+    }
+
+    @Override
+    public void disconnect() {
+        close();
+    }
+
+    @Override
+    public boolean ping() {
+        return write(PING, 0, PING.length);
+    }
+
+    @Override
+    public void send(O message) throws ClientException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try {
+            messageIO.write(message, new Particle(new DataOutputStream(encoded)));
+        } catch (Particle.WriteException e) {
+            throw new ClientException("Failed to encode message", e);
+        }
+        if (!write(encoded.toByteArray(), 0, encoded.size())) throw new ClientException("Session closed");
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed && channel.isOpen();
+    }
+
+    // Built on every call so idle sessions keep no streams around. Writes are sent as one frame on flush(), the server
+    // flushes the particles it hands to its callbacks once they return.
+    @Override
+    public Particle getParticle() {
+        return new Particle(new DataInputStream(InputStream.nullInputStream()), new DataOutputStream(new FrameOutputStream()));
+    }
+
+    static void flushQuietly(Particle particle) {
+        try {
+            particle.flush();
+        } catch (Particle.WriteException e) {
+            if (TCPServer.isDebugEnabled()) System.out.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public Metrics getMetrics() {
+        return server.getMetrics();
+    }
+
+    @Override
+    public String getHost() {
+        try {
+            if (channel.getRemoteAddress() instanceof InetSocketAddress address) return address.getHostString();
+        } catch (IOException ignore) {}
+        return null;
+    }
+
+    @Override
+    public int getPort() {
+        try {
+            if (channel.getRemoteAddress() instanceof InetSocketAddress address) return address.getPort();
+        } catch (IOException ignore) {}
+        return -1;
+    }
+
+    @Override
+    public @NotNull List<Task> getRepeatedTasks() {
+        return List.of();
+    }
+
+    @Override
+    public @NotNull MessageIO<I, O> getMessageIO() {
+        return messageIO;
+    }
+
+    @Override
+    public void onConnect(Particle particle) {
+        // Nothing
+    }
+
+    @Override
+    public void onMessage(I message, Particle particle) {
+        // Nothing
+    }
+
+    @Override
+    public void onDisconnect() {
+        // Nothing
+    }
+
+    // Collects a frame written field by field and hands it over in one write on flush, so a ping can't land inside it
+    private class FrameOutputStream extends OutputStream {
+
+        private ByteArrayOutputStream frame;
+
+        @Override
+        public void write(int b) {
+            if (frame == null) frame = new ByteArrayOutputStream();
+            frame.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (len == 0) return;
+            if (frame == null) frame = new ByteArrayOutputStream(Math.max(32, len));
+            frame.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (frame == null || frame.size() == 0) return;
+            byte[] bytes = frame.toByteArray();
+            frame.reset();
+            if (!NioSession.this.write(bytes, 0, bytes.length)) throw new IOException("Session closed");
+        }
+
+    }
+
+}
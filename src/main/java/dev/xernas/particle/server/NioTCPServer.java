@@ -0,0 +1,395 @@
+package dev.xernas.particle.server;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.client.Client;
+import dev.xernas.particle.metrics.Metrics;
+import dev.xernas.particle.nio.ChannelHandler;
+import dev.xernas.particle.nio.EventLoop;
+import dev.xernas.particle.nio.EventLoopGroup;
+import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.tasks.PingTask;
+import dev.xernas.particle.utils.BufferPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Serves every connection from the event loops of a group instead of a thread per client, for large numbers of
+// mostly idle sessions. Handlers run on the event loop, so onMessage must not block. getMessageIO is asked once per
+// session, returning a shared stateless instance keeps idle sessions small.
+public abstract class NioTCPServer<I, O> implements Server<I, O> {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int MAX_ACCEPTS_PER_WAKEUP = 256;
+
+    private final EventLoopGroup group;
+    private final BufferPool buffers;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ShardedSessionMap<I, O> connected = new ShardedSessionMap<>(1);
+    private final CountDownLatch closing = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile ServerSocketChannel serverChannel;
+    private Metrics metrics = Metrics.disabled();
+    private volatile boolean running = false;
+    private volatile long shutdownDeadline = 0;
+
+    public NioTCPServer(EventLoopGroup group) {
+        this(group, new BufferPool(DEFAULT_BUFFER_SIZE, 1024));
+    }
+
+    // The pool bounds how much buffer memory stays around once traffic calms down
+    public NioTCPServer(EventLoopGroup group, BufferPool buffers) {
+        this.group = group;
+        this.buffers = buffers;
+    }
+
+    @Override
+    public void listen() throws ServerException {
+        try {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            this.serverChannel = serverChannel;
+            serverChannel.bind(getAddress());
+            serverChannel.configureBlocking(false);
+            running = true;
+            onServerStart();
+            group.next().register(serverChannel, SelectionKey.OP_ACCEPT, new Acceptor(serverChannel)).join();
+
+            PingTask<I, O> pingTask = new PingTask<>(this);
+            scheduler.scheduleAtFixedRate(pingTask.asRunnable(), pingTask.getInitialDelay(), pingTask.getPeriod(), pingTask.getTimeUnit());
+            getRepeatedTasks().forEach(task -> scheduler.scheduleAtFixedRate(task.asRunnable(), task.getInitialDelay(), task.getPeriod(), task.getTimeUnit()));
+
+            closing.await();
+        } catch (IOException | CompletionException e) {
+            throw new ServerException("Failed to start server", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            closeServerChannel();
+            closeSessions();
+            shutdownScheduler(remainingShutdownNanos());
+            onServerStop();
+            stopped.countDown();
+        }
+    }
+
+    private void accept(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            if (TCPServer.isDebugEnabled()) e.printStackTrace();
+            closeQuietly(channel);
+            return;
+        }
+        metrics.onAccept();
+        EventLoop loop = group.next();
+        NioSession<I, O> session = new NioSession<>(this, channel, loop);
+        // Runs on the session's event loop before it can read anything, the session is complete once others can see it
+        loop.register(channel, SelectionKey.OP_READ, session, key -> {
+            UUID clientId = connected.newId(0);
+            session.opened(key, clientId, getMessageIO(clientId));
+            publish(clientId, session);
+            Particle particle = session.getParticle();
+            try {
+                onClientConnect(clientId, particle);
+            } catch (ServerException e) {
+                System.out.println(e.getMessage());
+                session.close();
+            } finally {
+                NioSession.flushQuietly(particle);
+            }
+        });
+    }
+
+    void sessionClosed(UUID clientId, NioSession<I, O> session) {
+        if (!removeConnectedClient(clientId, session)) return;
+        try {
+            onClientConnectionEnd(clientId, session);
+        } catch (ServerException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void closeSessions() {
+        for (Client<I, O> client : new ArrayList<>(connected.values())) ((NioSession<I, O>) client).close();
+        // Sessions close on their own event loop
+        long deadline = System.nanoTime() + remainingShutdownNanos();
+        while (!connected.isEmpty() && System.nanoTime() < deadline) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private void closeServerChannel() {
+        ServerSocketChannel serverChannel = this.serverChannel;
+        if (serverChannel != null) closeQuietly(serverChannel);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignore) {}
+    }
+
+    private void shutdownScheduler(long timeoutNanos) {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private long remainingShutdownNanos() {
+        if (shutdownDeadline == 0) return DEFAULT_SHUTDOWN_TIMEOUT_NANOS;
+        return Math.max(0, shutdownDeadline - System.nanoTime());
+    }
+
+    private NioSession<I, O> sessionOf(UUID clientId) {
+        return (NioSession<I, O>) connected.get(clientId);
+    }
+
+    @Override
+    public UUID newConnectedClient(Client<I, O> client) {
+        UUID clientId = connected.newId(0);
+        publish(clientId, client);
+        return clientId;
+    }
+
+    private void publish(UUID clientId, Client<I, O> client) {
+        connected.put(clientId, client);
+        metrics.onSessionOpened(clientId);
+    }
+
+    @Override
+    public Client<I, O> removeConnectedClient(UUID clientId) {
+        Client<I, O> client = connected.remove(clientId);
+        if (client != null) metrics.onSessionClosed(clientId);
+        return client;
+    }
+
+    @Override
+    public Client<I, O> resumeConnectedClient(UUID clientId, Client<I, O> client) {
+        Client<I, O> previous = connected.put(clientId, client);
+        if (previous == null) metrics.onSessionOpened(clientId);
+        return previous;
+    }
+
+    @Override
+    public boolean removeConnectedClient(UUID clientId, Client<I, O> client) {
+        if (!connected.remove(clientId, client)) return false;
+        metrics.onSessionClosed(clientId);
+        return true;
+    }
+
+    @Override
+    public void forceDisconnect(UUID clientId) throws ServerException {
+        NioSession<I, O> session = sessionOf(clientId);
+        if (session == null) {
+            throw new ServerException("Client not found");
+        }
+
+        Particle particle = session.getParticle();
+        try {
+            onClientDisconnect(clientId, particle);
+        } catch (ServerException ignore) {}
+        NioSession.flushQuietly(particle);
+        removeConnectedClient(clientId);
+        session.close();
+    }
+
+    @Override
+    public boolean ping(UUID clientId) throws ServerException {
+        NioSession<I, O> session = sessionOf(clientId);
+        if (session == null) {
+            throw new ServerException("Client not found");
+        }
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        if (!session.ping()) return false;
+        if (metrics.isEnabled()) metrics.onPing(System.nanoTime() - start);
+        return true;
+    }
+
+    @Override
+    public void pingAll() throws ServerException {
+        for (UUID clientId : new ArrayList<>(connected.keySet())) {
+            NioSession<I, O> session = sessionOf(clientId);
+            if (session == null) continue;
+            // A session still working through a backlog is alive, a ping would only grow it
+            if (session.hasPendingWrites()) continue;
+            if (!ping(clientId)) forceDisconnect(clientId);
+        }
+    }
+
+    @Override
+    public void send(UUID clientId, O message) throws ServerException {
+        NioSession<I, O> session = sessionOf(clientId);
+        if (session == null) {
+            System.err.println("Client not found");
+            return;
+        }
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try {
+            session.getMessageIO().write(message, new Particle(new DataOutputStream(encoded)));
+        } catch (Particle.WriteException e) {
+            throw new ServerException("Failed to encode message", e);
+        }
+        if (!session.write(encoded.toByteArray(), 0, encoded.size())) throw new ServerException("Failed to send message");
+        if (metrics.isEnabled()) {
+            metrics.onMessageOut(clientId, System.nanoTime() - start);
+            metrics.onBytesOut(clientId, encoded.size());
+        }
+    }
+
+    @Override
+    public boolean sendBytes(UUID clientId, byte[] encoded) throws ServerException {
+        NioSession<I, O> session = sessionOf(clientId);
+        if (session == null) return false;
+        if (!session.write(encoded, 0, encoded.length)) throw new ServerException("Failed to send message");
+        metrics.onBytesOut(clientId, encoded.length);
+        return true;
+    }
+
+    @Override
+    public void broadcast(O message) throws ServerException {
+        for (UUID clientId : connected.keySet()) send(clientId, message);
+    }
+
+    @Override
+    public Client<I, O> getClient(UUID clientId) {
+        return connected.get(clientId);
+    }
+
+    @Override
+    public Map<UUID, Client<I, O>> getConnectedClients() {
+        return connected;
+    }
+
+    public SocketAddress getAddress() {
+        return new InetSocketAddress(getPort());
+    }
+
+    public final BufferPool getBufferPool() {
+        return buffers;
+    }
+
+    public final EventLoopGroup getEventLoopGroup() {
+        return group;
+    }
+
+    public final Metrics enableMetrics(String name) {
+        this.metrics = new Metrics(name);
+        return metrics;
+    }
+
+    @Override
+    public final Metrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public final void stop() {
+        running = false;
+        closeServerChannel();
+        closing.countDown();
+    }
+
+    @Override
+    public final void drain(long timeout, TimeUnit unit) throws ServerException {
+        shutdownDeadline = System.nanoTime() + unit.toNanos(timeout);
+        onShutdownProgress(ShutdownPhase.STOP_ACCEPTING, connected.size());
+        running = false;
+        closeServerChannel();
+
+        onShutdownProgress(ShutdownPhase.FLUSHING, connected.size());
+        while (remainingShutdownNanos() > 0 && hasPendingWrites()) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+
+        onShutdownProgress(ShutdownPhase.NOTIFYING, connected.size());
+        for (Map.Entry<UUID, Client<I, O>> entry : connected.entrySet()) {
+            Particle particle = entry.getValue().getParticle();
+            try {
+                onClientDisconnect(entry.getKey(), particle);
+            } catch (ServerException ignore) {}
+            NioSession.flushQuietly(particle);
+        }
+
+        onShutdownProgress(ShutdownPhase.CLOSING, connected.size());
+        closeSessions();
+
+        onShutdownProgress(ShutdownPhase.TERMINATING, connected.size());
+        closing.countDown();
+        try {
+            if (serverChannel == null) shutdownScheduler(remainingShutdownNanos());
+            else if (!stopped.await(remainingShutdownNanos(), TimeUnit.NANOSECONDS)) {
+                throw new ServerException("Server did not stop before the drain deadline");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while draining", e);
+        }
+        onShutdownProgress(ShutdownPhase.TERMINATED, connected.size());
+    }
+
+    private boolean hasPendingWrites() {
+        for (Client<I, O> client : connected.values()) {
+            if (((NioSession<I, O>) client).hasPendingWrites()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public final boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void onShutdownProgress(ShutdownPhase phase, int remainingSessions) {
+        if (TCPServer.isDebugEnabled()) System.out.println("Shutdown " + phase + " (" + remainingSessions + " sessions remaining)");
+    }
+
+    private class Acceptor implements ChannelHandler {
+
+        private final ServerSocketChannel serverChannel;
+
+        private Acceptor(ServerSocketChannel serverChannel) {
+            this.serverChannel = serverChannel;
+        }
+
+        @Override
+        public void handle(SelectionKey key) throws IOException {
+            // Bounded so a connection storm does not starve the other channels of this loop
+            for (int i = 0; i < MAX_ACCEPTS_PER_WAKEUP; i++) {
+                SocketChannel channel = serverChannel.accept();
+                if (channel == null) return;
+                accept(channel);
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            if (isRunning() && TCPServer.isDebugEnabled()) e.printStackTrace();
+        }
+
+    }
+
+}
@@ -4,13 +4,18 @@ import dev.xernas.particle.Particle;
 import dev.xernas.particle.client.Client;
 import dev.xernas.particle.client.TCPClient;
 import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.metrics.Metrics;
+import dev.xernas.particle.ratelimit.TrafficShaper;
 import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.journal.Journal;
 import dev.xernas.particle.tasks.Task;
+import dev.xernas.particle.tick.TickEngine;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public interface Server<I, O> {
 
@@ -31,14 +36,53 @@ public interface Server<I, O> {
 
     void onClientDisconnect(UUID clientId, Particle particle) throws ServerException;
 
+    default void onClientResume(UUID clientId, Particle particle) throws ServerException {}
+
+    // Only called when a tick engine is enabled, on the tick thread after that tick's messages
+    default void onTick(long tick, long deltaNanos) throws ServerException {}
+
     void onClientConnectionEnd(UUID clientId, Client<I, O> disconnectedClient) throws ServerException;
 
     void onServerStop() throws ServerException;
 
+    default void onShutdownProgress(ShutdownPhase phase, int remainingSessions) {}
+
     UUID newConnectedClient(Client<I, O> client) throws ServerException;
 
     Client<I, O> removeConnectedClient(UUID clientId) throws ServerException;
 
+    // Only needed with session resumption, which the built-in servers provide
+    default Client<I, O> resumeConnectedClient(UUID clientId, Client<I, O> client) throws ServerException {
+        throw new ServerException(getClass().getSimpleName() + " does not support session resumption");
+    }
+
+    // Removes the session only if it is still held by this client, not atomic unless the server overrides it
+    default boolean removeConnectedClient(UUID clientId, Client<I, O> client) throws ServerException {
+        if (getClient(clientId) != client) return false;
+        return removeConnectedClient(clientId) != null;
+    }
+
+    default SessionResumption<I, O> getSessionResumption() {
+        return null;
+    }
+
+    default TrafficShaper getTrafficShaper() {
+        return null;
+    }
+
+    default TickEngine<I, O> getTickEngine() {
+        return null;
+    }
+
+    default Journal getJournal() {
+        return null;
+    }
+
+    // Sends what was queued for the session while it was detached, returns how many messages went out
+    default int deliverPending(UUID clientId) throws ServerException {
+        return 0;
+    }
+
     void forceDisconnect(UUID clientId) throws ServerException;
 
     boolean ping(UUID clientId) throws ServerException;
@@ -47,12 +91,30 @@ public interface Server<I, O> {
 
     void send(UUID clientId, O message) throws ServerException;
 
+    // Sends a message already encoded with the session's MessageIO, false if the session is unknown
+    default boolean sendBytes(UUID clientId, byte[] encoded) throws ServerException {
+        throw new ServerException(getClass().getSimpleName() + " does not support sending encoded messages");
+    }
+
     void broadcast(O message) throws ServerException;
 
     Client<I, O> getClient(UUID clientId);
 
     Map<UUID, Client<I, O>> getConnectedClients();
 
+    default void stop() throws ServerException {
+        throw new ServerException(getClass().getSimpleName() + " cannot be stopped");
+    }
+
+    // Servers without a graceful shutdown just stop
+    default void drain(long timeout, TimeUnit unit) throws ServerException {
+        stop();
+    }
+
     boolean isRunning();
 
+    default Metrics getMetrics() {
+        return Metrics.disabled();
+    }
+
 }
@@ -0,0 +1,210 @@
+package dev.xernas.particle.server;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.client.Client;
+import dev.xernas.particle.client.exceptions.ClientException;
+import dev.xernas.particle.server.exceptions.ServerException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Keeps sessions alive for a grace window after their connection drops so a reconnecting client gets its UUID back.
+// Offsets count the bytes the client wrote after the handshake, only advanced at message boundaries. Session ids are
+// not secret, resuming also takes the random token handed out in the handshake response.
+public class SessionResumption<I, O> {
+
+    public static final int HANDSHAKE_MAGIC = 0x50;
+    public static final int TOKEN_LENGTH = 16;
+    public static final int HANDSHAKE_RESPONSE_LENGTH = 42;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final long DETACH_TIMEOUT_MILLIS = 1000;
+
+    private final long windowNanos;
+    private final Map<UUID, Session<I, O>> sessions = new ConcurrentHashMap<>();
+
+    public SessionResumption(long window, TimeUnit unit) {
+        if (window <= 0) throw new IllegalArgumentException("Resume window must be positive");
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    public final Attachment attach(Server<I, O> server, Client<I, O> client, Particle particle) throws ServerException {
+        UUID requested;
+        byte[] token = new byte[TOKEN_LENGTH];
+        long replayableFrom;
+        try {
+            int magic;
+            // Pings may already be queued ahead of the handshake
+            while ((magic = particle.readByte(false)) == 0) {}
+            if (magic != HANDSHAKE_MAGIC) throw new ServerException("Unexpected handshake from client");
+            requested = new UUID(particle.readLong(), particle.readLong());
+            particle.in().readFully(token);
+            replayableFrom = particle.readLong();
+        } catch (Particle.ReadException | IOException e) {
+            throw new ServerException("Failed to read handshake", e);
+        }
+
+        Session<I, O> session = sessions.get(requested);
+        if (session != null && session.isAttached() && session.owns(token)) {
+            // Only the client holding the token gets here, its old connection is dead but was not noticed yet
+            Client<I, O> previous = server.getClient(requested);
+            if (previous != null && previous != client) closeQuietly(previous);
+            session.awaitDetached(DETACH_TIMEOUT_MILLIS);
+        }
+        Attachment attachment;
+        if (session != null && session.resume(token, replayableFrom)) {
+            server.resumeConnectedClient(requested, client);
+            attachment = new Attachment(requested, session.received, true);
+        } else {
+            UUID clientId = server.newConnectedClient(client);
+            session = new Session<>();
+            sessions.put(clientId, session);
+            attachment = new Attachment(clientId, 0, false);
+        }
+
+        ByteBuffer response = ByteBuffer.allocate(HANDSHAKE_RESPONSE_LENGTH);
+        response.put((byte) HANDSHAKE_MAGIC);
+        response.putLong(attachment.clientId().getMostSignificantBits());
+        response.putLong(attachment.clientId().getLeastSignificantBits());
+        response.put(session.token);
+        response.putLong(attachment.offset());
+        response.put((byte) (attachment.resumed() ? 1 : 0));
+        try {
+            // Single write so a concurrent ping can't land in the middle of the response
+            particle.writeBytes(response.array());
+            particle.flush();
+        } catch (Particle.WriteException e) {
+            // Registered above, the caller closes the connection
+            server.removeConnectedClient(attachment.clientId(), client);
+            if (attachment.resumed()) session.detach(client);
+            else sessions.remove(attachment.clientId());
+            throw new ServerException("Failed to answer handshake", e);
+        }
+        return attachment;
+    }
+
+    public final void received(UUID clientId, long offset) {
+        Session<I, O> session = sessions.get(clientId);
+        if (session != null) session.received = offset;
+    }
+
+    public final void detach(UUID clientId, Client<I, O> client) {
+        Session<I, O> session = sessions.get(clientId);
+        if (session != null) session.detach(client);
+    }
+
+    public final void end(UUID clientId) {
+        sessions.remove(clientId);
+    }
+
+    public final void expire(Server<I, O> server) {
+        expire(server, windowNanos);
+    }
+
+    public final void expireAll(Server<I, O> server) {
+        expire(server, 0);
+    }
+
+    private void expire(Server<I, O> server, long windowNanos) {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<UUID, Session<I, O>>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Session<I, O>> entry = iterator.next();
+            Client<I, O> client = entry.getValue().expire(now, windowNanos);
+            if (client == null) continue;
+            iterator.remove();
+            try {
+                server.onClientConnectionEnd(entry.getKey(), client);
+            } catch (ServerException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    public final boolean isDetached(UUID clientId) {
+        Session<I, O> session = sessions.get(clientId);
+        return session != null && session.detachedClient != null;
+    }
+
+    public final int getDetachedCount() {
+        int count = 0;
+        for (Session<I, O> session : sessions.values()) {
+            if (session.detachedClient != null) count++;
+        }
+        return count;
+    }
+
+    public final long getWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+    }
+
+    private static void closeQuietly(Client<?, ?> client) {
+        try {
+            if (client.isConnected()) client.disconnect();
+        } catch (ClientException ignore) {}
+    }
+
+    public record Attachment(UUID clientId, long offset, boolean resumed) {}
+
+    private static class Session<I, O> {
+
+        private final byte[] token = new byte[TOKEN_LENGTH];
+        private volatile long received = 0;
+        private volatile Client<I, O> detachedClient;
+        private long detachedAt;
+        private boolean expired = false;
+
+        private Session() {
+            RANDOM.nextBytes(token);
+        }
+
+        private synchronized boolean resume(byte[] presented, long replayableFrom) {
+            // A session still attached to a live connection is never handed over
+            if (expired || detachedClient == null) return false;
+            if (!owns(presented)) return false;
+            // The client dropped messages the server never decoded, resuming would leave a gap
+            if (replayableFrom > received) return false;
+            detachedClient = null;
+            return true;
+        }
+
+        private synchronized void detach(Client<I, O> client) {
+            detachedClient = client;
+            detachedAt = System.nanoTime();
+            notifyAll();
+        }
+
+        private boolean owns(byte[] presented) {
+            return MessageDigest.isEqual(token, presented);
+        }
+
+        private synchronized boolean isAttached() {
+            return !expired && detachedClient == null;
+        }
+
+        private synchronized void awaitDetached(long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining;
+            try {
+                while (isAttached() && (remaining = deadline - System.currentTimeMillis()) > 0) wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized Client<I, O> expire(long now, long windowNanos) {
+            if (detachedClient == null || now - detachedAt < windowNanos) return null;
+            expired = true;
+            return detachedClient;
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+package dev.xernas.particle.server;
+
+import dev.xernas.particle.client.Client;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// One map per listener shard behind a single view. The shard is encoded in the low bits of the session UUID, so lookups go straight to it.
+public class ShardedSessionMap<I, O> extends AbstractMap<UUID, Client<I, O>> {
+
+    public static final int MAX_SHARDS = 1024;
+    private static final long SHARD_BITS = 0xFFFFL;
+
+    private final List<Map<UUID, Client<I, O>>> shards;
+    private final Set<Entry<UUID, Client<I, O>>> entries = new Entries();
+
+    public ShardedSessionMap(int shardCount) {
+        if (shardCount < 1 || shardCount > MAX_SHARDS) throw new IllegalArgumentException("Shard count must be between 1 and " + MAX_SHARDS);
+        List<Map<UUID, Client<I, O>>> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) shards.add(new ConcurrentHashMap<>());
+        this.shards = List.copyOf(shards);
+    }
+
+    // Random UUIDs whose low bits point at the given shard
+    public UUID newId(int shard) {
+        UUID clientId;
+        do {
+            UUID random = UUID.randomUUID();
+            clientId = new UUID(random.getMostSignificantBits(), (random.getLeastSignificantBits() & ~SHARD_BITS) | shard);
+        } while (containsKey(clientId));
+        return clientId;
+    }
+
+    public int shardOf(Object clientId) {
+        if (shards.size() == 1 || !(clientId instanceof UUID id)) return 0;
+        return (int) ((id.getLeastSignificantBits() & SHARD_BITS) % shards.size());
+    }
+
+    public Map<UUID, Client<I, O>> getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    @Override
+    public Client<I, O> get(Object clientId) {
+        return shards.get(shardOf(clientId)).get(clientId);
+    }
+
+    @Override
+    public boolean containsKey(Object clientId) {
+        return shards.get(shardOf(clientId)).containsKey(clientId);
+    }
+
+    @Override
+    public Client<I, O> put(UUID clientId, Client<I, O> client) {
+        return shards.get(shardOf(clientId)).put(clientId, client);
+    }
+
+    @Override
+    public Client<I, O> remove(Object clientId) {
+        return shards.get(shardOf(clientId)).remove(clientId);
+    }
+
+    @Override
+    public boolean remove(Object clientId, Object client) {
+        return shards.get(shardOf(clientId)).remove(clientId, client);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Map<UUID, Client<I, O>> shard : shards) size += shard.size();
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Map<UUID, Client<I, O>> shard : shards) if (!shard.isEmpty()) return false;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (Map<UUID, Client<I, O>> shard : shards) shard.clear();
+    }
+
+    @Override
+    public Set<Entry<UUID, Client<I, O>>> entrySet() {
+        return entries;
+    }
+
+    private class Entries extends AbstractSet<Entry<UUID, Client<I, O>>> {
+
+        @Override
+        public Iterator<Entry<UUID, Client<I, O>>> iterator() {
+            return new Iterator<>() {
+                private int shard = 0;
+                private Iterator<Entry<UUID, Client<I, O>>> current = shards.get(0).entrySet().iterator();
+                private Iterator<Entry<UUID, Client<I, O>>> last;
+
+                @Override
+                public boolean hasNext() {
+                    while (!current.hasNext() && shard < shards.size() - 1) current = shards.get(++shard).entrySet().iterator();
+                    return current.hasNext();
+                }
+
+                @Override
+                public Entry<UUID, Client<I, O>> next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    last = current;
+                    return current.next();
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) throw new IllegalStateException();
+                    last.remove();
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ShardedSessionMap.this.size();
+        }
+
+    }
+
+}
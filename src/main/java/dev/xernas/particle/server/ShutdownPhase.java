@@ -0,0 +1,12 @@
+package dev.xernas.particle.server;
+
+public enum ShutdownPhase {
+
+    STOP_ACCEPTING,
+    FLUSHING,
+    NOTIFYING,
+    CLOSING,
+    TERMINATING,
+    TERMINATED
+
+}
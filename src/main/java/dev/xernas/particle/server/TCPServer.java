@@ -4,55 +4,206 @@ import dev.xernas.particle.Particle;
 import dev.xernas.particle.client.Client;
 import dev.xernas.particle.client.TCPClient;
 import dev.xernas.particle.client.exceptions.ClientException;
+import dev.xernas.particle.cluster.ClusterNode;
+import dev.xernas.particle.jfr.PingEvent;
+import dev.xernas.particle.jfr.SendBlockedEvent;
+import dev.xernas.particle.journal.Journal;
+import dev.xernas.particle.lanes.LaneScheduler;
+import dev.xernas.particle.lanes.Priority;
 import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.metrics.Metrics;
+import dev.xernas.particle.outbox.Outbox;
+import dev.xernas.particle.ratelimit.TrafficShaper;
 import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.stream.StreamSender;
 import dev.xernas.particle.tasks.PingTask;
 import dev.xernas.particle.tasks.Task;
+import dev.xernas.particle.tick.TickEngine;
+import dev.xernas.particle.transport.Acceptor;
+import dev.xernas.particle.transport.Connection;
+import dev.xernas.particle.transport.Transport;
 import org.jetbrains.annotations.NotNull;
 
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public abstract class TCPServer<I, O> implements Server<I, O> {
 
-    private final Map<UUID, Client<I, O>> connected = new HashMap<>();
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final ThreadLocal<Integer> handlerShard = ThreadLocal.withInitial(() -> 0);
+    private final Set<Thread> handlers = ConcurrentHashMap.newKeySet();
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final CountDownLatch stopped = new CountDownLatch(1);
 
-    private boolean running = false;
+    private volatile ShardedSessionMap<I, O> connected = new ShardedSessionMap<>(1);
+    private Metrics metrics = Metrics.disabled();
+    private TrafficShaper shaper;
+    private SessionResumption<I, O> resumption;
+    private TickEngine<I, O> tickEngine;
+    private Journal journal;
+    private Outbox outbox;
+    private ClusterNode<I, O> cluster;
+    private int laneChunkSize = 0;
+    private final Map<UUID, LaneScheduler> lanes = new ConcurrentHashMap<>();
+    private final StreamSender streamSender = new StreamSender();
+    private volatile List<Acceptor> acceptors;
+    private volatile boolean running = false;
+    private volatile long shutdownDeadline = 0;
+    private volatile CountDownLatch draining;
     private static boolean debug = false;
 
     @Override
     public final void listen() throws ServerException {
-        try (ServerSocket server = new ServerSocket(getPort())) {
+        List<Acceptor> acceptors = new ArrayList<>();
+        try {
+            bindAcceptors(acceptors);
+            this.acceptors = acceptors;
             running = true;
             onServerStart();
+            if (tickEngine != null) tickEngine.start();
+            if (cluster != null) cluster.start();
 
             PingTask<I, O> pingTask = new PingTask<>(this);
             scheduler.scheduleAtFixedRate(pingTask.asRunnable(), pingTask.getInitialDelay(), pingTask.getPeriod(), pingTask.getTimeUnit());
 
             getRepeatedTasks().forEach(task -> scheduler.scheduleAtFixedRate(task.asRunnable(), task.getInitialDelay(), task.getPeriod(), task.getTimeUnit()));
 
-            while (isRunning()) {
-                TCPClient<I, O> client = TCPClient.wrap(server.accept());
-                new Thread(new ClientHandler<>(client.getParticle(), this, client)).start();
+            TrafficShaper shaper = this.shaper;
+            if (shaper != null) scheduler.scheduleAtFixedRate(shaper::evictIdle, 10, 10, TimeUnit.SECONDS);
+
+            SessionResumption<I, O> resumption = this.resumption;
+            if (resumption != null) {
+                long period = Math.max(10, resumption.getWindowMillis() / 4);
+                scheduler.scheduleAtFixedRate(() -> resumption.expire(this), period, period, TimeUnit.MILLISECONDS);
             }
+
+            Outbox outbox = this.outbox;
+            if (outbox != null) scheduler.scheduleAtFixedRate(() -> outbox.expire(this::isReachable), 1, 1, TimeUnit.SECONDS);
+
+            // One accept thread per listener. Acceptors are not safe to share, so a single shared listener is served by
+            // this thread alone and it hands connections to the shards in turn.
+            for (int shard = 1; shard < acceptors.size(); shard++) {
+                Acceptor acceptor = acceptors.get(shard);
+                int listenerShard = shard;
+                Thread listener = new Thread(() -> {
+                    try {
+                        acceptLoop(acceptor, listenerShard, 1);
+                    } catch (IOException e) {
+                        System.out.println("Listener " + listenerShard + " failed: " + e.getMessage());
+                        stop();
+                    }
+                }, "particle-listener-" + shard);
+                listener.start();
+            }
+            acceptLoop(acceptors.get(0), 0, acceptors.size() == 1 ? connected.getShardCount() : 1);
         } catch (IOException e) {
             throw new ServerException("Failed to start server", e);
         } finally {
-            shutdownScheduler();
+            running = false;
+            closeAcceptors(acceptors);
+            awaitDrain();
+            if (tickEngine != null) tickEngine.stop();
+            if (cluster != null) cluster.stop();
+            if (journal != null) journal.flush();
+            shutdownScheduler(remainingShutdownNanos());
             onServerStop();
+            stopped.countDown();
         }
     }
 
-    private void shutdownScheduler() {
+    private void bindAcceptors(List<Acceptor> acceptors) throws IOException {
+        Transport transport = getTransport();
+        SocketAddress address = getAddress();
+        int shards = connected.getShardCount();
+        if (shards > 1 && transport.supportsReusePort(address)) {
+            for (int shard = 0; shard < shards; shard++) acceptors.add(transport.bind(address, true));
+            return;
+        }
+        // Without SO_REUSEPORT one listener accepts for every shard
+        if (shards > 1 && debug) System.out.println("SO_REUSEPORT unavailable for " + address + ", sharing one listener");
+        acceptors.add(transport.bind(address));
+    }
+
+    // Sessions go to shards shard to shard + spread - 1 in turn
+    private void acceptLoop(Acceptor acceptor, int shard, int spread) throws IOException {
+        TrafficShaper shaper = this.shaper;
+        long accepted = 0;
+        while (isRunning()) {
+            Connection connection;
+            try {
+                connection = acceptor.accept();
+            } catch (IOException e) {
+                // Closed by stop() or drain()
+                if (!isRunning()) break;
+                throw e;
+            }
+            if (shaper != null && shaper.admitAccept(true) != TrafficShaper.Verdict.PASS) {
+                connection.close();
+                continue;
+            }
+            metrics.onAccept();
+            int target = shard + (int) (accepted++ % spread);
+            startHandler(() -> {
+                // Handshakes run here so a slow peer never holds up the accept loop
+                TCPClient<I, O> client;
+                try {
+                    connection.handshake();
+                    client = TCPClient.wrap(connection);
+                } catch (IOException e) {
+                    if (debug) e.printStackTrace();
+                    try {
+                        connection.close();
+                    } catch (IOException ignore) {}
+                    return;
+                }
+                new ClientHandler<>(client.getParticle(), this, client).run();
+            }, target);
+        }
+    }
+
+    private void closeAcceptors(List<Acceptor> acceptors) {
+        for (Acceptor acceptor : acceptors) {
+            try {
+                acceptor.close();
+            } catch (IOException e) {
+                if (debug) e.printStackTrace();
+            }
+        }
+    }
+
+    private void startHandler(Runnable clientHandler, int shard) {
+        Thread handler = new Thread(() -> {
+            // New sessions land in the shard of the listener that accepted them
+            handlerShard.set(shard);
+            try {
+                clientHandler.run();
+            } finally {
+                handlers.remove(Thread.currentThread());
+            }
+        });
+        handlers.add(handler);
+        handler.start();
+    }
+
+    private void shutdownScheduler(long timeoutNanos) {
         System.out.println("Shutting down scheduler");
         scheduler.shutdown();
         try {
-            if (!scheduler.awaitTermination(60, TimeUnit.SECONDS)) {
+            if (!scheduler.awaitTermination(timeoutNanos, TimeUnit.NANOSECONDS)) {
                 scheduler.shutdownNow();
             }
         } catch (InterruptedException e) {
@@ -60,19 +211,57 @@ public abstract class TCPServer<I, O> implements Server<I, O> {
         }
     }
 
+    private void awaitDrain() {
+        CountDownLatch draining = this.draining;
+        if (draining == null) return;
+        try {
+            draining.await(remainingShutdownNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long remainingShutdownNanos() {
+        if (shutdownDeadline == 0) return DEFAULT_SHUTDOWN_TIMEOUT_NANOS;
+        return Math.max(0, shutdownDeadline - System.nanoTime());
+    }
+
     @Override
     public final UUID newConnectedClient(Client<I, O> client) {
-        UUID clientId;
-        do {
-            clientId = UUID.randomUUID();
-        } while (connected.containsKey(clientId));
+        UUID clientId = connected.newId(handlerShard.get());
         connected.put(clientId, client);
+        metrics.onSessionOpened(clientId);
+        if (cluster != null) cluster.claim(clientId);
         return clientId;
     }
 
     @Override
     public final Client<I, O> removeConnectedClient(UUID clientId) {
-        return connected.remove(clientId);
+        Client<I, O> client = connected.remove(clientId);
+        if (client == null) return null;
+        metrics.onSessionClosed(clientId);
+        lanes.remove(clientId);
+        if (cluster != null) cluster.release(clientId);
+        return client;
+    }
+
+    @Override
+    public final Client<I, O> resumeConnectedClient(UUID clientId, Client<I, O> client) {
+        Client<I, O> previous = connected.put(clientId, client);
+        if (previous == null) metrics.onSessionOpened(clientId);
+        // Its scheduler writes to the previous connection
+        lanes.remove(clientId);
+        if (cluster != null) cluster.claim(clientId);
+        return previous;
+    }
+
+    @Override
+    public final boolean removeConnectedClient(UUID clientId, Client<I, O> client) {
+        if (!connected.remove(clientId, client)) return false;
+        metrics.onSessionClosed(clientId);
+        lanes.remove(clientId);
+        if (cluster != null) cluster.release(clientId);
+        return true;
     }
 
     @Override
@@ -86,6 +275,9 @@ public abstract class TCPServer<I, O> implements Server<I, O> {
             onClientDisconnect(clientId, client.getParticle());
         } catch (ServerException ignore) {}
         removeConnectedClient(clientId);
+        if (resumption != null) resumption.end(clientId);
+        if (outbox != null) outbox.remove(clientId);
+        if (shaper != null) shaper.remove(clientId);
         try {
             client.disconnect();
         } catch (ClientException e) {
@@ -99,39 +291,253 @@ public abstract class TCPServer<I, O> implements Server<I, O> {
         if (client == null) {
             throw new ServerException("Client not found");
         }
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        LaneScheduler scheduler = lanesOf(clientId, client);
+        PingEvent event = new PingEvent();
+        event.begin();
         try {
-            client.getParticle().writeInt(0);
-        } catch (Particle.WriteException e) {
+            // Pings come from the scheduler, they must not land inside a message
+            if (scheduler != null) scheduler.enqueue(Priority.CONTROL, new byte[Integer.BYTES]);
+            else synchronized (client.getParticle().out()) {
+                client.getParticle().writeInt(0);
+            }
+        } catch (Particle.WriteException | IOException e) {
+            commitPing(event, clientId, false);
             return false;
         }
+        commitPing(event, clientId, true);
+        if (metrics.isEnabled()) metrics.onPing(System.nanoTime() - start);
         return true;
     }
 
+    private static void commitPing(PingEvent event, UUID clientId, boolean succeeded) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.sessionId = clientId.toString();
+        event.succeeded = succeeded;
+        event.commit();
+    }
+
     @Override
     public final void pingAll() throws ServerException {
         List<UUID> toPing = new ArrayList<>(connected.keySet());
         for (UUID clientId : toPing) {
-            if (!ping(clientId)) forceDisconnect(clientId);
+            if (ping(clientId)) continue;
+            Client<I, O> client = getClient(clientId);
+            if (resumption == null || client == null) {
+                forceDisconnect(clientId);
+                continue;
+            }
+            // Let the handler detach the session so the client can still resume it
+            try {
+                client.disconnect();
+            } catch (ClientException ignore) {}
         }
     }
 
     @Override
     public final void send(UUID clientId, O message) throws ServerException {
+        TickEngine<I, O> tickEngine = this.tickEngine;
+        if (tickEngine != null && tickEngine.isTickThread()) {
+            tickEngine.queue(clientId, message);
+            return;
+        }
+        if (journal != null || outbox != null || laneChunkSize > 0) {
+            // Encoded once so the journal gets the exact frame, the outbox can hold it and lanes can split it
+            if (!sendBytes(clientId, encode(clientId, message))) System.err.println("Client not found");
+            return;
+        }
         Client<I, O> client = getClient(clientId);
         if (client == null) {
-            System.err.println("Client not found");
+            if (!route(clientId, message)) System.err.println("Client not found");
             return;
         }
+        SendBlockedEvent event = new SendBlockedEvent();
+        event.begin();
+        long sentAtBegin = event.isEnabled() ? client.getBytesSent() : 0;
         try {
-            getMessageIO(clientId).write(message, client.getParticle());
+            synchronized (client.getParticle().out()) {
+                if (!metrics.isEnabled()) {
+                    getMessageIO(clientId).write(message, client.getParticle());
+                    return;
+                }
+                long sentBefore = client.getBytesSent();
+                long start = System.nanoTime();
+                getMessageIO(clientId).write(message, client.getParticle());
+                metrics.onMessageOut(clientId, System.nanoTime() - start);
+                metrics.onBytesOut(clientId, client.getBytesSent() - sentBefore);
+            }
         } catch (Particle.WriteException e) {
             throw new ServerException("Failed to send message", e);
+        } finally {
+            // Other senders of the session can make the size slightly off, it is only read when recording
+            if (event.isEnabled()) commitSend(event, clientId, client.getBytesSent() - sentAtBegin);
+        }
+    }
+
+    // Needs lanes to be enabled, the message is then scheduled with the others of the connection
+    public final void send(UUID clientId, O message, Priority priority) throws ServerException {
+        Client<I, O> client = getClient(clientId);
+        boolean direct = laneChunkSize > 0 && client != null && (tickEngine == null || !tickEngine.isTickThread()) && (outbox == null || !outbox.hasPending(clientId));
+        if (!direct) {
+            send(clientId, message);
+            return;
+        }
+        write(clientId, client, encode(clientId, message), priority);
+    }
+
+    @Override
+    public final boolean sendBytes(UUID clientId, byte[] encoded) throws ServerException {
+        if (sendLocal(clientId, encoded)) return true;
+        return cluster != null && cluster.route(clientId, encoded);
+    }
+
+    private boolean sendLocal(UUID clientId, byte[] encoded) throws ServerException {
+        Client<I, O> client = getClient(clientId);
+        Outbox outbox = this.outbox;
+        if (outbox != null && queue(outbox, clientId, client, encoded)) return true;
+        if (client == null) return false;
+        write(clientId, client, encoded);
+        return true;
+    }
+
+    // Sessions held by another node of the cluster
+    private boolean route(UUID clientId, O message) throws ServerException {
+        if (cluster == null) return false;
+        try {
+            return cluster.route(clientId, message);
+        } catch (Particle.WriteException e) {
+            throw new ServerException("Failed to encode message", e);
+        }
+    }
+
+    // Detached sessions and sessions still getting their backlog keep their order through the outbox
+    private boolean queue(Outbox outbox, UUID clientId, Client<I, O> client, byte[] encoded) {
+        if (client != null) return outbox.offerIfPending(clientId, encoded);
+        if (resumption == null || !resumption.isDetached(clientId)) return false;
+        if (!outbox.offer(clientId, encoded) && isDebugEnabled()) System.out.println("Outbox dropped a message for " + clientId);
+        return true;
+    }
+
+    private void write(UUID clientId, Client<I, O> client, byte[] encoded) throws ServerException {
+        write(clientId, client, encoded, Priority.INTERACTIVE);
+    }
+
+    private void write(UUID clientId, Client<I, O> client, byte[] encoded, Priority priority) throws ServerException {
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        LaneScheduler scheduler = lanesOf(clientId, client);
+        SendBlockedEvent event = new SendBlockedEvent();
+        event.begin();
+        try {
+            if (scheduler != null) scheduler.enqueue(priority, encoded);
+            else synchronized (client.getParticle().out()) {
+                client.getParticle().writeBytes(encoded);
+            }
+        } catch (Particle.WriteException | IOException e) {
+            throw new ServerException("Failed to send message", e);
+        } finally {
+            commitSend(event, clientId, encoded.length);
+        }
+        if (journal != null) journal.append(Journal.OUTBOUND, clientId, encoded);
+        if (metrics.isEnabled()) {
+            metrics.onMessageOut(clientId, System.nanoTime() - start);
+            metrics.onBytesOut(clientId, encoded.length);
+        }
+    }
+
+    private static void commitSend(SendBlockedEvent event, UUID clientId, long bytes) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.sessionId = clientId.toString();
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    private LaneScheduler lanesOf(UUID clientId, Client<I, O> client) {
+        if (laneChunkSize == 0) return null;
+        LaneScheduler scheduler = lanes.get(clientId);
+        if (scheduler != null) return scheduler;
+        return lanes.computeIfAbsent(clientId, id -> new LaneScheduler(laneChunkSize, (header, payload, offset, length) -> {
+            DataOutputStream out = client.getParticle().out();
+            synchronized (out) {
+                if (header != null) out.write(header);
+                out.write(payload, offset, length);
+            }
+        }, () -> {
+            // The handler sees the closed connection and ends the session
+            try {
+                client.disconnect();
+            } catch (ClientException e) {
+                if (debug) e.printStackTrace();
+            }
+        }));
+    }
+
+    private byte[] encode(UUID clientId, O message) throws ServerException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try {
+            getMessageIO(clientId).write(message, new Particle(new DataOutputStream(encoded)));
+        } catch (Particle.WriteException e) {
+            throw new ServerException("Failed to encode message", e);
+        }
+        return encoded.toByteArray();
+    }
+
+    @Override
+    public final int deliverPending(UUID clientId) throws ServerException {
+        Outbox outbox = this.outbox;
+        Client<I, O> client = getClient(clientId);
+        if (outbox == null || client == null) return 0;
+        try {
+            return outbox.deliver(clientId, encoded -> {
+                try {
+                    write(clientId, client, encoded);
+                    return true;
+                } catch (ServerException e) {
+                    return false;
+                }
+            });
+        } catch (IOException e) {
+            throw new ServerException("Failed to deliver pending messages", e);
+        }
+    }
+
+    public final int sendFile(UUID clientId, Path path) throws ServerException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            return sendFile(clientId, file, 0, file.size(), path.getFileName().toString());
+        } catch (IOException e) {
+            throw new ServerException("Failed to open " + path, e);
+        }
+    }
+
+    // The client has to read with a StreamMessageIO, the file goes out in chunks between other messages
+    public final int sendFile(UUID clientId, FileChannel file, long position, long count, String name) throws ServerException {
+        if (!(getClient(clientId) instanceof TCPClient<I, O> client)) throw new ServerException("Client not found");
+        try {
+            return getStreamSender().send(file, position, count, name, (header, source, from, length) -> {
+                synchronized (client.getParticle().out()) {
+                    client.transfer(header, source, from, length);
+                }
+                if (metrics.isEnabled()) metrics.onBytesOut(clientId, header.length + length);
+            });
+        } catch (IOException e) {
+            throw new ServerException("Failed to send " + name, e);
         }
     }
 
+    public StreamSender getStreamSender() {
+        return streamSender;
+    }
+
     @Override
     public final void broadcast(O message) throws ServerException {
         for (UUID clientId : connected.keySet()) send(clientId, message);
+        if (cluster == null) return;
+        try {
+            cluster.broadcast(message);
+        } catch (Particle.WriteException e) {
+            throw new ServerException("Failed to encode message", e);
+        }
     }
 
     public static void debug(boolean debug) {
@@ -152,14 +558,228 @@ public abstract class TCPServer<I, O> implements Server<I, O> {
         return connected;
     }
 
+    // One listener thread and session shard per core, call before listen()
+    public final ShardedSessionMap<I, O> enableSharding(int listeners) {
+        if (running) throw new IllegalStateException("Sharding must be enabled before the server starts");
+        this.connected = new ShardedSessionMap<>(listeners);
+        return connected;
+    }
+
+    // onMessage and onTick then run on a single tick thread, sends made there are written once per tick
+    public final TickEngine<I, O> enableTickEngine(int ticksPerSecond) {
+        this.tickEngine = new TickEngine<>(this, ticksPerSecond);
+        return tickEngine;
+    }
+
+    @Override
+    public final TickEngine<I, O> getTickEngine() {
+        return tickEngine;
+    }
+
+    // Records every decoded inbound frame and every outbound frame, see JournalReplayer to play them back
+    public final Journal enableJournal(Path directory) throws ServerException {
+        return enableJournal(directory, Journal.DEFAULT_SEGMENT_SIZE, 16);
+    }
+
+    public final Journal enableJournal(Path directory, int segmentSize, int maxSegments) throws ServerException {
+        try {
+            this.journal = new Journal(directory, segmentSize, maxSegments);
+        } catch (IOException e) {
+            throw new ServerException("Failed to open journal in " + directory, e);
+        }
+        return journal;
+    }
+
+    @Override
+    public final Journal getJournal() {
+        return journal;
+    }
+
+    // Clients have to read with a LaneMessageIO, large messages are split into chunks of this size
+    public final void enableLanes(int chunkSize) {
+        if (chunkSize < 64) throw new IllegalArgumentException("Chunks must be at least 64 bytes");
+        this.laneChunkSize = chunkSize;
+    }
+
+    // Joins a mesh of servers, peers are the cluster addresses of the other nodes. Messages for their clients are encoded with messageIO.
+    // Every node needs the same secret. Without a context links are plaintext, so bind them to a private interface.
+    public final ClusterNode<I, O> enableCluster(String nodeId, SocketAddress bindAddress, List<SocketAddress> peers, byte[] secret, MessageIO<I, O> messageIO) {
+        return enableCluster(nodeId, bindAddress, peers, secret, null, messageIO);
+    }
+
+    public final ClusterNode<I, O> enableCluster(String nodeId, SocketAddress bindAddress, List<SocketAddress> peers, byte[] secret, SSLContext context, MessageIO<I, O> messageIO) {
+        this.cluster = new ClusterNode<>(nodeId, bindAddress, peers, secret, context, messageIO, new ClusterNode.LocalSessions() {
+            @Override
+            public boolean send(UUID clientId, byte[] encoded) {
+                try {
+                    return sendLocal(clientId, encoded);
+                } catch (ServerException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public Collection<UUID> sessions() {
+                return connected.keySet();
+            }
+        });
+        return cluster;
+    }
+
+    public final ClusterNode<I, O> getCluster() {
+        return cluster;
+    }
+
+    // Needs session resumption, messages sent to a detached session are delivered in order once it resumes
+    public final Outbox enableOutbox(Outbox outbox) {
+        this.outbox = outbox;
+        return outbox;
+    }
+
+    public final Outbox getOutbox() {
+        return outbox;
+    }
+
+    private boolean isReachable(UUID clientId) {
+        return getClient(clientId) != null || (resumption != null && resumption.isDetached(clientId));
+    }
+
+    public final TrafficShaper enableTrafficShaping(TrafficShaper shaper) {
+        this.shaper = shaper;
+        return shaper;
+    }
+
+    @Override
+    public final TrafficShaper getTrafficShaper() {
+        return shaper;
+    }
+
+    public final Metrics enableMetrics(String name) {
+        this.metrics = new Metrics(name);
+        return metrics;
+    }
+
+    public SSLContext getSSLContext() {
+        return null;
+    }
+
+    // Return a UnixDomainSocketAddress to talk to a peer on the same host
+    public SocketAddress getAddress() {
+        return new InetSocketAddress(getPort());
+    }
+
+    public Transport getTransport() {
+        return Transport.forAddress(getAddress(), getSSLContext());
+    }
+
+    public final SessionResumption<I, O> enableSessionResumption(long window, TimeUnit unit) {
+        this.resumption = new SessionResumption<>(window, unit);
+        return resumption;
+    }
+
+    @Override
+    public final SessionResumption<I, O> getSessionResumption() {
+        return resumption;
+    }
+
+    @Override
+    public final Metrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
     public final void stop() {
         running = false;
+        List<Acceptor> acceptors = this.acceptors;
+        if (acceptors != null) closeAcceptors(acceptors);
+    }
+
+    @Override
+    public final void drain(long timeout, TimeUnit unit) throws ServerException {
+        shutdownDeadline = System.nanoTime() + unit.toNanos(timeout);
+        CountDownLatch draining = new CountDownLatch(1);
+        this.draining = draining;
+        try {
+            drainSessions();
+        } finally {
+            draining.countDown();
+        }
+
+        onShutdownProgress(ShutdownPhase.TERMINATING, connected.size());
+        try {
+            if (acceptors == null) shutdownScheduler(remainingShutdownNanos());
+            else if (!stopped.await(remainingShutdownNanos(), TimeUnit.NANOSECONDS)) {
+                throw new ServerException("Server did not stop before the drain deadline");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while draining", e);
+        }
+        onShutdownProgress(ShutdownPhase.TERMINATED, connected.size());
+    }
+
+    private void drainSessions() throws ServerException {
+        onShutdownProgress(ShutdownPhase.STOP_ACCEPTING, connected.size());
+        stop();
+
+        onShutdownProgress(ShutdownPhase.FLUSHING, connected.size());
+        // The last tick's buffers go out when the engine stops, then the outbox backlogs, the lanes and the streams
+        if (tickEngine != null) tickEngine.stop();
+        for (Map.Entry<UUID, Client<I, O>> entry : connected.entrySet()) {
+            UUID clientId = entry.getKey();
+            try {
+                if (outbox != null && outbox.hasPending(clientId)) deliverPending(clientId);
+            } catch (ServerException e) {
+                if (isDebugEnabled()) System.out.println(e.getMessage());
+            }
+            LaneScheduler scheduler = lanes.get(clientId);
+            try {
+                if (scheduler != null && !scheduler.flush(remainingShutdownNanos(), TimeUnit.NANOSECONDS) && isDebugEnabled()) {
+                    System.out.println("Lanes of " + clientId + " were not flushed before the drain deadline");
+                }
+            } catch (IOException e) {
+                if (isDebugEnabled()) System.out.println(e.getMessage());
+            }
+            try {
+                entry.getValue().getParticle().flush();
+            } catch (Particle.WriteException ignore) {}
+        }
+
+        onShutdownProgress(ShutdownPhase.NOTIFYING, connected.size());
+        for (Map.Entry<UUID, Client<I, O>> entry : connected.entrySet()) {
+            try {
+                onClientDisconnect(entry.getKey(), entry.getValue().getParticle());
+            } catch (ServerException ignore) {}
+        }
+
+        onShutdownProgress(ShutdownPhase.CLOSING, connected.size());
+        for (Client<I, O> client : connected.values()) {
+            try {
+                client.disconnect();
+            } catch (ClientException ignore) {}
+        }
+        try {
+            for (Thread handler : handlers) {
+                long remaining = remainingShutdownNanos();
+                if (remaining == 0) break;
+                TimeUnit.NANOSECONDS.timedJoin(handler, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handlers.forEach(Thread::interrupt);
+        if (resumption != null) resumption.expireAll(this);
     }
 
     public final boolean isRunning() {
         return running;
     }
 
+    @Override
+    public void onShutdownProgress(ShutdownPhase phase, int remainingSessions) {
+        if (isDebugEnabled()) System.out.println("Shutdown " + phase + " (" + remainingSessions + " sessions remaining)");
+    }
+
     public static boolean isDebugEnabled() {
         return debug;
     }
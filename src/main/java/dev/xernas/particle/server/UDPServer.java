@@ -1,33 +1,60 @@
 package dev.xernas.particle.server;
 
 import dev.xernas.particle.Particle;
+import dev.xernas.particle.aggregation.DatagramAggregator;
 import dev.xernas.particle.client.Client;
 import dev.xernas.particle.client.UDPClient;
 import dev.xernas.particle.client.exceptions.ClientException;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.metrics.Metrics;
+import dev.xernas.particle.ratelimit.TrafficShaper;
 import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.utils.Host;
 import dev.xernas.particle.tasks.PingTask;
 
 import java.io.*;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+// Each remote address gets one session, opened by its first datagram (UDPClient pings on connect) and ended once it
+// has been silent for SESSION_TIMEOUT. Messages are decoded and handled on the receive thread of the sender's shard,
+// in the order they arrive, so onMessage must not block.
 public abstract class UDPServer<I, O> implements Server<I, O> {
 
-    private final Map<UUID, Client<I, O>> connected = new HashMap<>();
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long SESSION_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final boolean REUSE_PORT = probeReusePort();
+
+    private final ThreadLocal<Integer> handlerShard = ThreadLocal.withInitial(() -> 0);
+    private final Map<Host, Peer<I, O>> peers = new ConcurrentHashMap<>();
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final CountDownLatch stopped = new CountDownLatch(1);
 
-    private DatagramSocket server;
-    private boolean running = false;
+    private volatile ShardedSessionMap<I, O> connected = new ShardedSessionMap<>(1);
+    private volatile DatagramSocket[] sockets;
+    private Metrics metrics = Metrics.disabled();
+    private TrafficShaper shaper;
+    private DatagramAggregator aggregator;
+    private volatile boolean running = false;
+    private volatile long shutdownDeadline = 0;
+    private volatile CountDownLatch draining;
 
     @Override
     public void listen() throws ServerException {
-        try (DatagramSocket server = new DatagramSocket(getPort())) {
+        List<DatagramSocket> sockets = new ArrayList<>();
+        try {
+            bindSockets(sockets);
             running = true;
-            this.server = server;
+            this.sockets = sockets.toArray(new DatagramSocket[0]);
             onServerStart();
 
             PingTask<I, O> pingTask = new PingTask<>(this);
@@ -35,27 +62,234 @@ public abstract class UDPServer<I, O> implements Server<I, O> {
 
             getRepeatedTasks().forEach(task -> scheduler.scheduleAtFixedRate(task.asRunnable(), task.getInitialDelay(), task.getPeriod(), task.getTimeUnit()));
 
-            byte[] buffer = new byte[1024];
-            while (isRunning()) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                server.receive(packet);
-                Particle packetParticle = new Particle(new DataInputStream(new ByteArrayInputStream(packet.getData(), 0, packet.getLength())));
-                UDPClient<I, O> client = UDPClient.wrap(packet);
-                new Thread(new ClientHandler<>(packetParticle, this, client)).start();
+            TrafficShaper shaper = this.shaper;
+            if (shaper != null) scheduler.scheduleAtFixedRate(shaper::evictIdle, 10, 10, TimeUnit.SECONDS);
+
+            DatagramAggregator aggregator = this.aggregator;
+            if (aggregator != null) {
+                long period = Math.max(TimeUnit.MICROSECONDS.toNanos(100), aggregator.getLingerNanos());
+                scheduler.scheduleAtFixedRate(aggregator::flushExpired, period, period, TimeUnit.NANOSECONDS);
             }
+
+            for (int shard = 1; shard < connected.getShardCount(); shard++) {
+                DatagramSocket socket = sockets.get(shard % sockets.size());
+                int listenerShard = shard;
+                Thread listener = new Thread(() -> {
+                    try {
+                        receiveLoop(socket, listenerShard);
+                    } catch (IOException e) {
+                        System.out.println("Listener " + listenerShard + " failed: " + e.getMessage());
+                        stop();
+                    }
+                }, "particle-listener-" + shard);
+                listener.start();
+            }
+            receiveLoop(sockets.get(0), 0);
         } catch (IOException e) {
             throw new ServerException("Failed to start server", e);
         } finally {
-            shutdownScheduler();
+            running = false;
+            sockets.forEach(DatagramSocket::close);
+            awaitDrain();
+            shutdownScheduler(remainingShutdownNanos());
             onServerStop();
+            stopped.countDown();
+        }
+    }
+
+    private void bindSockets(List<DatagramSocket> sockets) throws IOException {
+        int shards = connected.getShardCount();
+        if (shards == 1 || !REUSE_PORT) {
+            if (shards > 1 && TCPServer.isDebugEnabled()) System.out.println("SO_REUSEPORT unavailable, sharing one socket");
+            sockets.add(new DatagramSocket(getPort()));
+            return;
+        }
+        // The kernel hashes each sender to one of the sockets, so a sender always lands on the same shard
+        for (int shard = 0; shard < shards; shard++) {
+            DatagramSocket socket = new DatagramSocket(null);
+            sockets.add(socket);
+            socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            socket.bind(new InetSocketAddress(getPort()));
+        }
+    }
+
+    private void receiveLoop(DatagramSocket server, int shard) throws IOException {
+        handlerShard.set(shard);
+        DatagramAggregator aggregator = this.aggregator;
+        byte[] buffer = new byte[aggregator == null ? 1024 : DatagramAggregator.RECEIVE_BUFFER_SIZE];
+        while (isRunning()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                server.receive(packet);
+            } catch (SocketException e) {
+                // Closed by stop() or drain()
+                if (!isRunning()) break;
+                throw e;
+            }
+            Host from = new Host(packet.getAddress().getHostAddress(), packet.getPort());
+            Peer<I, O> peer = peerOf(from, packet);
+            if (peer == null) continue;
+            metrics.onBytesIn(peer.clientId, packet.getLength());
+            // Pings only keep the session alive
+            if (UDPClient.isPing(packet.getData(), 0, packet.getLength())) continue;
+            if (aggregator != null && DatagramAggregator.isBatch(packet.getData(), 0, packet.getLength())) {
+                List<byte[]> messages;
+                try {
+                    messages = DatagramAggregator.unpack(packet.getData(), 0, packet.getLength());
+                } catch (IOException e) {
+                    if (TCPServer.isDebugEnabled()) System.out.println(e.getMessage() + " from " + packet.getSocketAddress());
+                    continue;
+                }
+                for (byte[] message : messages) dispatch(peer, message, 0, message.length);
+                continue;
+            }
+            dispatch(peer, packet.getData(), 0, packet.getLength());
+        }
+    }
+
+    // Opens the sender's session on its first datagram, null if it is refused or another listener is still opening it
+    private Peer<I, O> peerOf(Host from, DatagramPacket packet) {
+        Peer<I, O> peer = peers.get(from);
+        if (peer == null) {
+            // Only a new remote address counts as an accept
+            TrafficShaper shaper = this.shaper;
+            if (shaper != null && shaper.admitAccept(false) != TrafficShaper.Verdict.PASS) return null;
+            UDPClient<I, O> client = UDPClient.wrap(packet);
+            Peer<I, O> created = new Peer<>(client);
+            peer = peers.putIfAbsent(from, created);
+            if (peer == null) return open(from, created);
+        }
+        if (!peer.open) return null;
+        peer.lastSeen = System.nanoTime();
+        return peer;
+    }
+
+    private Peer<I, O> open(Host from, Peer<I, O> peer) {
+        try {
+            peer.clientId = newConnectedClient(peer.client);
+            peer.messageIO = getMessageIO(peer.clientId);
+            metrics.onAccept();
+            onClientConnect(peer.clientId, peer.client.getParticle());
+        } catch (ServerException e) {
+            System.out.println(e.getMessage());
+            peers.remove(from, peer);
+            if (peer.clientId != null) removeConnectedClient(peer.clientId, peer.client);
+            return null;
+        }
+        peer.lastSeen = System.nanoTime();
+        peer.open = true;
+        return peer;
+    }
+
+    // A datagram may carry several messages back to back, they are handled in order
+    private void dispatch(Peer<I, O> peer, byte[] data, int offset, int length) {
+        Particle particle = new Particle(new DataInputStream(new ByteArrayInputStream(data, offset, length)));
+        TrafficShaper shaper = this.shaper;
+        try {
+            int remaining = length;
+            while (remaining > 0) {
+                long start = metrics.isEnabled() ? System.nanoTime() : 0;
+                I message = peer.messageIO.read(particle);
+                int size = remaining - particle.in().available();
+                if (size == 0) break;
+                remaining -= size;
+                if (metrics.isEnabled()) metrics.onMessageIn(peer.clientId, System.nanoTime() - start);
+                if (message == null) continue;
+                if (shaper != null) {
+                    if (shaper.getAction() == TrafficShaper.Action.DELAY) {
+                        // The receive thread serves every sender, the message is held back instead of parking it
+                        if (defer(peer, message, particle, shaper.reserve(peer.clientId, size))) continue;
+                    } else {
+                        TrafficShaper.Verdict verdict = shaper.admit(peer.clientId, size, false);
+                        if (verdict == TrafficShaper.Verdict.DROP) continue;
+                        if (verdict == TrafficShaper.Verdict.DISCONNECT) {
+                            forceDisconnect(peer.clientId);
+                            return;
+                        }
+                    }
+                }
+                handle(peer, message, particle);
+            }
+        } catch (Particle.ReadException e) {
+            if (TCPServer.isDebugEnabled()) System.out.println("Failed to read message: " + e.getMessage());
+        } catch (ServerException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            // In-memory stream, never thrown
+        }
+    }
+
+    private void handle(Peer<I, O> peer, I message, Particle particle) {
+        try {
+            onMessage(peer.clientId, message, particle);
+        } catch (ServerException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    // Messages of a session that is held back queue behind it, so the session keeps its order
+    private boolean defer(Peer<I, O> peer, I message, Particle particle, long waitNanos) {
+        synchronized (peer) {
+            if (waitNanos <= 0 && peer.deferred.isEmpty()) return false;
+            peer.deferred.add(new Deferred<>(message, particle, System.nanoTime() + waitNanos));
+            if (peer.deferred.size() == 1) scheduler.schedule(() -> handleDeferred(peer), waitNanos, TimeUnit.NANOSECONDS);
+        }
+        return true;
+    }
+
+    private void handleDeferred(Peer<I, O> peer) {
+        synchronized (peer) {
+            Deferred<I> deferred;
+            while ((deferred = peer.deferred.peek()) != null) {
+                long wait = deferred.due() - System.nanoTime();
+                if (wait > 0) {
+                    scheduler.schedule(() -> handleDeferred(peer), wait, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                // Handled before it leaves the queue, so the receive thread can't overtake it
+                handle(peer, deferred.message(), deferred.particle());
+                peer.deferred.poll();
+            }
+        }
+    }
+
+    private void endSession(Host host, Peer<I, O> peer) {
+        if (!peers.remove(host, peer) || !removeConnectedClient(peer.clientId, peer.client)) return;
+        synchronized (peer) {
+            peer.deferred.clear();
+        }
+        TrafficShaper shaper = this.shaper;
+        if (shaper != null) shaper.remove(peer.clientId);
+        try {
+            onClientConnectionEnd(peer.clientId, peer.client);
+        } catch (ServerException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private DatagramSocket socketFor(UUID clientId) {
+        DatagramSocket[] sockets = this.sockets;
+        return sockets[connected.shardOf(clientId) % sockets.length];
+    }
+
+    private DatagramSocket socketFor(Host host) {
+        DatagramSocket[] sockets = this.sockets;
+        return sockets[Math.floorMod(host.hashCode(), sockets.length)];
+    }
+
+    private static boolean probeReusePort() {
+        try (DatagramSocket probe = new DatagramSocket(null)) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
         }
     }
 
-    private void shutdownScheduler() {
+    private void shutdownScheduler(long timeoutNanos) {
         System.out.println("Shutting down scheduler");
         scheduler.shutdown();
         try {
-            if (!scheduler.awaitTermination(60, TimeUnit.SECONDS)) {
+            if (!scheduler.awaitTermination(timeoutNanos, TimeUnit.NANOSECONDS)) {
                 scheduler.shutdownNow();
             }
         } catch (InterruptedException e) {
@@ -63,19 +297,48 @@ public abstract class UDPServer<I, O> implements Server<I, O> {
         }
     }
 
+    private void awaitDrain() {
+        CountDownLatch draining = this.draining;
+        if (draining == null) return;
+        try {
+            draining.await(remainingShutdownNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long remainingShutdownNanos() {
+        if (shutdownDeadline == 0) return DEFAULT_SHUTDOWN_TIMEOUT_NANOS;
+        return Math.max(0, shutdownDeadline - System.nanoTime());
+    }
+
     @Override
     public UUID newConnectedClient(Client<I, O> client) throws ServerException {
-        UUID clientId;
-        do {
-            clientId = UUID.randomUUID();
-        } while (connected.containsKey(clientId));
+        UUID clientId = connected.newId(handlerShard.get());
         connected.put(clientId, client);
+        metrics.onSessionOpened(clientId);
         return clientId;
     }
 
     @Override
     public Client<I, O> removeConnectedClient(UUID clientId) throws ServerException {
-        return connected.remove(clientId);
+        Client<I, O> client = connected.remove(clientId);
+        if (client != null) metrics.onSessionClosed(clientId);
+        return client;
+    }
+
+    @Override
+    public Client<I, O> resumeConnectedClient(UUID clientId, Client<I, O> client) {
+        Client<I, O> previous = connected.put(clientId, client);
+        if (previous == null) metrics.onSessionOpened(clientId);
+        return previous;
+    }
+
+    @Override
+    public boolean removeConnectedClient(UUID clientId, Client<I, O> client) {
+        if (!connected.remove(clientId, client)) return false;
+        metrics.onSessionClosed(clientId);
+        return true;
     }
 
     @Override
@@ -88,7 +351,10 @@ public abstract class UDPServer<I, O> implements Server<I, O> {
         try {
             onClientDisconnect(clientId, client.getParticle());
         } catch (ServerException ignore) {}
-        removeConnectedClient(clientId);
+        Host host = ((UDPClient<I, O>) client).toHost();
+        Peer<I, O> peer = peers.get(host);
+        if (peer != null && peer.client == client) endSession(host, peer);
+        else removeConnectedClient(clientId);
         try {
             client.disconnect();
         } catch (ClientException e) {
@@ -102,8 +368,10 @@ public abstract class UDPServer<I, O> implements Server<I, O> {
         if (client == null) {
             throw new ServerException("Client not found");
         }
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
         try {
-            Particle.sendUDP(1, server, client.toHost());
+            Particle.sendUDP(UDPClient.PING, socketFor(clientId), client.toHost());
+            if (metrics.isEnabled()) metrics.onPing(System.nanoTime() - start);
             return true;
         } catch (Particle.WriteException e) {
             try {
@@ -117,6 +385,11 @@ public abstract class UDPServer<I, O> implements Server<I, O> {
 
     @Override
     public void pingAll() throws ServerException {
+        long now = System.nanoTime();
+        for (Map.Entry<Host, Peer<I, O>> entry : peers.entrySet()) {
+            Peer<I, O> peer = entry.getValue();
+            if (peer.open && now - peer.lastSeen > SESSION_TIMEOUT_NANOS) endSession(entry.getKey(), peer);
+        }
         List<UUID> toPing = new ArrayList<>(connected.keySet());
         for (UUID clientId : toPing) {
             if (!ping(clientId)) forceDisconnect(clientId);
@@ -131,14 +404,32 @@ public abstract class UDPServer<I, O> implements Server<I, O> {
             return;
         }
         try {
+            long start = metrics.isEnabled() ? System.nanoTime() : 0;
             ByteArrayOutputStream packetData = new ByteArrayOutputStream(1024);
             Particle packetParticleToSend = new Particle(new DataOutputStream(packetData));
             getMessageIO(clientId).write(message, packetParticleToSend);
             byte[] data = packetData.toByteArray();
-            Particle.sendUDP(data, server, client.toHost());
-        } catch (Particle.WriteException e) {
+            if (metrics.isEnabled()) metrics.onMessageOut(clientId, System.nanoTime() - start);
+            if (aggregator != null) aggregator.add(client.toHost(), data);
+            else Particle.sendUDP(data, socketFor(clientId), client.toHost());
+            metrics.onBytesOut(clientId, data.length);
+        } catch (Particle.WriteException | IOException e) {
+            throw new ServerException("Failed to send message", e);
+        }
+    }
+
+    @Override
+    public boolean sendBytes(UUID clientId, byte[] encoded) throws ServerException {
+        UDPClient<I, O> client = (UDPClient<I, O>) getClient(clientId);
+        if (client == null) return false;
+        try {
+            if (aggregator != null) aggregator.add(client.toHost(), encoded);
+            else Particle.sendUDP(encoded, socketFor(clientId), client.toHost());
+            metrics.onBytesOut(clientId, encoded.length);
+        } catch (Particle.WriteException | IOException e) {
             throw new ServerException("Failed to send message", e);
         }
+        return true;
     }
 
     @Override
@@ -156,8 +447,125 @@ public abstract class UDPServer<I, O> implements Server<I, O> {
         return connected;
     }
 
+    // One receive thread and session shard per core, call before listen()
+    public final ShardedSessionMap<I, O> enableSharding(int listeners) {
+        if (running) throw new IllegalStateException("Sharding must be enabled before the server starts");
+        this.connected = new ShardedSessionMap<>(listeners);
+        return connected;
+    }
+
+    // Small messages wait up to linger to share a datagram, clients have to enable aggregation too
+    public final DatagramAggregator enableAggregation(int maxDatagramSize, long linger, TimeUnit unit) {
+        this.aggregator = new DatagramAggregator((to, data, length) -> socketFor(to).send(new DatagramPacket(data, 0, length, new InetSocketAddress(to.host(), to.port()))), maxDatagramSize, linger, unit);
+        return aggregator;
+    }
+
+    public final DatagramAggregator getAggregator() {
+        return aggregator;
+    }
+
+    public final TrafficShaper enableTrafficShaping(TrafficShaper shaper) {
+        this.shaper = shaper;
+        return shaper;
+    }
+
+    @Override
+    public final TrafficShaper getTrafficShaper() {
+        return shaper;
+    }
+
+    public final Metrics enableMetrics(String name) {
+        this.metrics = new Metrics(name);
+        return metrics;
+    }
+
+    @Override
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        DatagramSocket[] sockets = this.sockets;
+        if (sockets != null) for (DatagramSocket socket : sockets) socket.close();
+    }
+
+    @Override
+    public void drain(long timeout, TimeUnit unit) throws ServerException {
+        shutdownDeadline = System.nanoTime() + unit.toNanos(timeout);
+        CountDownLatch draining = new CountDownLatch(1);
+        this.draining = draining;
+        try {
+            drainSessions();
+        } finally {
+            draining.countDown();
+        }
+
+        onShutdownProgress(ShutdownPhase.TERMINATING, connected.size());
+        try {
+            if (sockets == null) shutdownScheduler(remainingShutdownNanos());
+            else if (!stopped.await(remainingShutdownNanos(), TimeUnit.NANOSECONDS)) {
+                throw new ServerException("Server did not stop before the drain deadline");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while draining", e);
+        }
+        onShutdownProgress(ShutdownPhase.TERMINATED, connected.size());
+    }
+
+    private void drainSessions() throws ServerException {
+        onShutdownProgress(ShutdownPhase.STOP_ACCEPTING, connected.size());
+        // Aggregated datagrams go out through the listening sockets, so they are flushed before those close
+        if (aggregator != null && sockets != null) {
+            try {
+                aggregator.flushAll();
+            } catch (IOException ignore) {}
+        }
+        stop();
+        onShutdownProgress(ShutdownPhase.FLUSHING, connected.size());
+
+        onShutdownProgress(ShutdownPhase.NOTIFYING, connected.size());
+        for (Map.Entry<UUID, Client<I, O>> entry : connected.entrySet()) {
+            try {
+                onClientDisconnect(entry.getKey(), entry.getValue().getParticle());
+            } catch (ServerException ignore) {}
+        }
+
+        onShutdownProgress(ShutdownPhase.CLOSING, connected.size());
+        peers.clear();
+        for (UUID clientId : new ArrayList<>(connected.keySet())) {
+            Client<I, O> client = removeConnectedClient(clientId);
+            if (client != null) onClientConnectionEnd(clientId, client);
+        }
+    }
+
     @Override
     public boolean isRunning() {
         return running;
     }
+
+    @Override
+    public void onShutdownProgress(ShutdownPhase phase, int remainingSessions) {
+        if (TCPServer.isDebugEnabled()) System.out.println("Shutdown " + phase + " (" + remainingSessions + " sessions remaining)");
+    }
+
+    private record Deferred<I>(I message, Particle particle, long due) {}
+
+    private static final class Peer<I, O> {
+
+        private final UDPClient<I, O> client;
+        // Guarded by the peer
+        private final ArrayDeque<Deferred<I>> deferred = new ArrayDeque<>();
+        private volatile UUID clientId;
+        private volatile MessageIO<I, O> messageIO;
+        private volatile long lastSeen;
+        private volatile boolean open;
+
+        private Peer(UDPClient<I, O> client) {
+            this.client = client;
+        }
+
+    }
 }
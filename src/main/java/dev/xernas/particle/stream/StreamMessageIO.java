@@ -0,0 +1,126 @@
+package dev.xernas.particle.stream;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.message.MessageIO;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Frame: kind byte, then the wrapped message or a stream frame. Chunks go straight from the connection into the receiver's file.
+// Use one instance per connection, stream ids are only unique per sender.
+public class StreamMessageIO<I, O> implements MessageIO<I, O> {
+
+    static final int MESSAGE = 1;
+    static final int OPEN = 2;
+    static final int CHUNK = 3;
+    static final int END = 4;
+    static final int ABORT = 5;
+
+    private final MessageIO<I, O> payloadIO;
+    private final StreamReceiver receiver;
+    private final Map<Integer, Incoming> incoming = new ConcurrentHashMap<>();
+
+    public StreamMessageIO(MessageIO<I, O> payloadIO, StreamReceiver receiver) {
+        this.payloadIO = payloadIO;
+        this.receiver = receiver;
+    }
+
+    @Override
+    public I read(Particle particle) throws Particle.ReadException {
+        int kind = particle.readByte(false);
+        // Pings are written as a zero int, each zero byte is skipped on its own
+        if (kind == 0) return null;
+        switch (kind) {
+            case MESSAGE -> {
+                return payloadIO.read(particle);
+            }
+            case OPEN -> open(particle.readVarInt(), particle.readLong(), particle.readString());
+            case CHUNK -> chunk(particle, particle.readVarInt(), particle.readVarInt());
+            case END -> end(particle.readVarInt(), true);
+            case ABORT -> end(particle.readVarInt(), false);
+            default -> throw new Particle.ReadException("Unknown stream frame kind " + kind);
+        }
+        return null;
+    }
+
+    @Override
+    public void write(O message, Particle particle) throws Particle.WriteException {
+        particle.writeByte(MESSAGE);
+        payloadIO.write(message, particle);
+    }
+
+    // Closes every unfinished stream, call it once the connection is gone
+    public void abortAll() {
+        for (Integer streamId : incoming.keySet()) end(streamId, false);
+    }
+
+    public int getOpenStreamCount() {
+        return incoming.size();
+    }
+
+    private void open(int streamId, long size, String name) throws Particle.ReadException {
+        try {
+            FileChannel target = receiver.open(streamId, name, size);
+            // Without a target the chunks are still read off the connection, then dropped
+            if (target != null) incoming.put(streamId, new Incoming(target, name, size, target.position()));
+        } catch (IOException e) {
+            throw new Particle.ReadException("Failed to open stream " + name, e);
+        }
+    }
+
+    private void chunk(Particle particle, int streamId, int length) throws Particle.ReadException {
+        Incoming stream = incoming.get(streamId);
+        try {
+            if (stream == null || stream.position + length - stream.start > stream.size) {
+                particle.in().skipNBytes(length);
+                // More than announced, the sender is broken so the partial file is not trusted either
+                if (stream != null) end(streamId, false);
+                return;
+            }
+            ReadableByteChannel source = Channels.newChannel(particle.in());
+            long end = stream.position + length;
+            while (stream.position < end) {
+                long read = stream.target.transferFrom(source, stream.position, end - stream.position);
+                if (read <= 0) throw new Particle.ReadException("Connection closed in the middle of a chunk");
+                stream.position += read;
+            }
+        } catch (IOException e) {
+            throw new Particle.ReadException("Failed to receive chunk of stream " + streamId, e);
+        }
+    }
+
+    private void end(int streamId, boolean completed) {
+        Incoming stream = incoming.remove(streamId);
+        if (stream == null) return;
+        try {
+            stream.target.close();
+        } catch (IOException e) {
+            completed = false;
+        }
+        if (completed) receiver.onComplete(streamId, stream.name, stream.position - stream.start);
+        else receiver.onAbort(streamId, stream.name);
+    }
+
+    private static class Incoming {
+
+        private final FileChannel target;
+        private final String name;
+        private final long size;
+        private final long start;
+        private long position;
+
+        private Incoming(FileChannel target, String name, long size, long start) {
+            this.target = target;
+            this.name = name;
+            this.size = size;
+            this.start = start;
+            this.position = start;
+        }
+
+    }
+
+}
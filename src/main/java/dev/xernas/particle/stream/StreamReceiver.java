@@ -0,0 +1,15 @@
+package dev.xernas.particle.stream;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+public interface StreamReceiver {
+
+    // Return null to discard the stream, the channel is closed by the caller once it ends
+    FileChannel open(int streamId, String name, long size) throws IOException;
+
+    default void onComplete(int streamId, String name, long size) {}
+
+    default void onAbort(int streamId, String name) {}
+
+}
@@ -0,0 +1,108 @@
+package dev.xernas.particle.stream;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.ratelimit.TokenBucket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Splits a file into chunk frames. Each frame is written on its own so other messages get the connection in between.
+public class StreamSender {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final int chunkSize;
+    private final TokenBucket rate;
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    public StreamSender() {
+        this(DEFAULT_CHUNK_SIZE, 0);
+    }
+
+    // A positive rate paces every stream of this sender, the TCP window already stops it from outrunning the peer
+    public StreamSender(int chunkSize, long bytesPerSecond) {
+        if (chunkSize < 1) throw new IllegalArgumentException("Chunk size must be positive");
+        this.chunkSize = chunkSize;
+        this.rate = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, Math.max(bytesPerSecond, chunkSize)) : null;
+    }
+
+    public int send(FileChannel file, long position, long count, String name, FrameWriter writer) throws IOException {
+        if (position < 0 || count < 0 || position + count > file.size()) throw new IOException("Range is outside of " + name);
+        int streamId = nextId.incrementAndGet() & Integer.MAX_VALUE;
+        writer.write(openHeader(streamId, count, name), null, 0, 0);
+        long sent = 0;
+        try {
+            while (sent < count) {
+                int length = (int) Math.min(chunkSize, count - sent);
+                if (rate != null) LockSupport.parkNanos(rate.reserve(length));
+                writer.write(chunkHeader(streamId, length), file, position + sent, length);
+                sent += length;
+                // Lets a sender waiting on the connection go before the next chunk
+                Thread.yield();
+            }
+        } catch (IOException e) {
+            // Only the file can be at fault if the connection still takes the abort
+            try {
+                writer.write(header(StreamMessageIO.ABORT, streamId), null, 0, 0);
+            } catch (IOException ignore) {}
+            throw e;
+        }
+        writer.write(header(StreamMessageIO.END, streamId), null, 0, 0);
+        return streamId;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    private static byte[] openHeader(int streamId, long size, String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + name.length());
+        Particle particle = new Particle(new DataOutputStream(bytes));
+        try {
+            particle.writeByte(StreamMessageIO.OPEN);
+            particle.writeVarInt(streamId);
+            particle.writeLong(size);
+            particle.writeString(name);
+        } catch (Particle.WriteException e) {
+            throw new IOException("Failed to encode stream header", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] chunkHeader(int streamId, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(11);
+        Particle particle = new Particle(new DataOutputStream(bytes));
+        try {
+            particle.writeByte(StreamMessageIO.CHUNK);
+            particle.writeVarInt(streamId);
+            particle.writeVarInt(length);
+        } catch (Particle.WriteException e) {
+            throw new IOException("Failed to encode chunk header", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] header(int kind, int streamId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(6);
+        Particle particle = new Particle(new DataOutputStream(bytes));
+        try {
+            particle.writeByte(kind);
+            particle.writeVarInt(streamId);
+        } catch (Particle.WriteException e) {
+            throw new IOException("Failed to encode stream header", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public interface FrameWriter {
+
+        // Writes the header then count bytes of the file as one frame, other writes to the connection must wait for it
+        void write(byte[] header, FileChannel file, long position, long count) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,233 @@
+package dev.xernas.particle.tick;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.jfr.SlowHandlerEvent;
+import dev.xernas.particle.metrics.Histogram;
+import dev.xernas.particle.metrics.Metrics;
+import dev.xernas.particle.server.Server;
+import dev.xernas.particle.server.exceptions.ServerException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs the simulation on one thread at a fixed rate. Handler threads only enqueue, each tick drains what arrived before it started,
+// and sends made during the tick are encoded per session and written once at its end.
+public class TickEngine<I, O> {
+
+    private static final int MAX_POOLED_BUFFERS = 1024;
+
+    private final Server<I, O> server;
+    private final long periodNanos;
+    private final Queue<Inbound<I>> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong offered = new AtomicLong();
+    // Only the tick thread writes it, the backlog gauge reads it from the metrics thread
+    private volatile long drained = 0;
+
+    // Only touched by the tick thread
+    private final Map<UUID, Outbound> outbound = new LinkedHashMap<>();
+    private final ArrayDeque<Outbound> pool = new ArrayDeque<>();
+
+    private final Histogram tickDuration = new Histogram();
+    private final LongAdder overruns = new LongAdder();
+    private final LongAdder skippedTicks = new LongAdder();
+    private volatile long tickCount = 0;
+    private volatile int lastInbound = 0;
+    private volatile int lastOutbound = 0;
+
+    private volatile Thread thread;
+    private volatile boolean running = false;
+
+    public TickEngine(Server<I, O> server, int ticksPerSecond) {
+        if (ticksPerSecond < 1 || ticksPerSecond > 10_000) throw new IllegalArgumentException("Tick rate must be between 1 and 10000 per second");
+        this.server = server;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / ticksPerSecond;
+    }
+
+    public void offer(UUID clientId, I message, Particle particle) {
+        inbound.add(new Inbound<>(clientId, message, particle));
+        offered.incrementAndGet();
+    }
+
+    public boolean isTickThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Called from the tick thread, the message goes out with every other message for that session when the tick ends
+    public void queue(UUID clientId, O message) throws ServerException {
+        Outbound buffer = outbound.get(clientId);
+        if (buffer == null) {
+            buffer = pool.isEmpty() ? new Outbound() : pool.poll();
+            outbound.put(clientId, buffer);
+        }
+        try {
+            server.getMessageIO(clientId).write(message, buffer.particle);
+        } catch (Particle.WriteException e) {
+            throw new ServerException("Failed to encode message", e);
+        }
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        Metrics metrics = server.getMetrics();
+        metrics.registerGauge("tick.durationP99Nanos", () -> tickDuration.getPercentile(99));
+        metrics.registerGauge("tick.overruns", overruns::sum);
+        metrics.registerGauge("tick.inboundBacklog", this::getInboundBacklog);
+        thread = new Thread(this::run, "particle-tick");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Thread thread = this.thread;
+        if (thread == null || thread == Thread.currentThread()) return;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.NANOSECONDS.toMillis(periodNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        long previous = next - periodNanos;
+        while (running) {
+            long start = System.nanoTime();
+            tick(start - previous);
+            previous = start;
+            long end = System.nanoTime();
+            tickDuration.record(end - start);
+
+            next += periodNanos;
+            if (end - next > 0) {
+                overruns.increment();
+                // Catch up with one tick, drop the rest instead of spiralling
+                long behind = (end - next) / periodNanos;
+                if (behind > 0) {
+                    skippedTicks.add(behind);
+                    next += behind * periodNanos;
+                }
+                continue;
+            }
+            long remaining;
+            while (running && (remaining = next - System.nanoTime()) > 0) LockSupport.parkNanos(remaining);
+        }
+        // Whatever was sent during the last tick still goes out
+        flush();
+    }
+
+    private void tick(long deltaNanos) {
+        long target = offered.get();
+        int count = 0;
+        while (drained < target) {
+            Inbound<I> message = inbound.poll();
+            if (message == null) break;
+            drained++;
+            count++;
+            SlowHandlerEvent event = new SlowHandlerEvent();
+            event.begin();
+            try {
+                server.onMessage(message.clientId(), message.message(), message.particle());
+                event.end();
+                if (event.shouldCommit()) {
+                    event.sessionId = message.clientId().toString();
+                    event.messageType = message.message().getClass().getName();
+                    event.tick = true;
+                    event.commit();
+                }
+            } catch (ServerException e) {
+                System.out.println(e.getMessage());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        lastInbound = count;
+
+        try {
+            server.onTick(tickCount, deltaNanos);
+        } catch (ServerException e) {
+            System.out.println(e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        tickCount++;
+        flush();
+    }
+
+    private void flush() {
+        int sessions = 0;
+        for (Map.Entry<UUID, Outbound> entry : outbound.entrySet()) {
+            Outbound buffer = entry.getValue();
+            try {
+                if (server.sendBytes(entry.getKey(), buffer.bytes.toByteArray())) sessions++;
+            } catch (ServerException e) {
+                if (server.getClient(entry.getKey()) != null) System.out.println(e.getMessage());
+            }
+            buffer.reset();
+            if (pool.size() < MAX_POOLED_BUFFERS) pool.add(buffer);
+        }
+        outbound.clear();
+        lastOutbound = sessions;
+    }
+
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public Histogram getTickDuration() {
+        return tickDuration;
+    }
+
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    public long getSkippedTicks() {
+        return skippedTicks.sum();
+    }
+
+    public int getLastInboundCount() {
+        return lastInbound;
+    }
+
+    public int getLastOutboundSessions() {
+        return lastOutbound;
+    }
+
+    public long getInboundBacklog() {
+        return Math.max(0, offered.get() - drained);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private record Inbound<I>(UUID clientId, I message, Particle particle) {}
+
+    private static class Outbound {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final Particle particle = new Particle(new DataOutputStream(bytes));
+
+        private void reset() {
+            bytes.reset();
+        }
+
+    }
+
+}
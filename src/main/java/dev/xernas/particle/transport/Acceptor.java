@@ -0,0 +1,13 @@
+package dev.xernas.particle.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+
+public interface Acceptor extends Closeable {
+
+    Connection accept() throws IOException;
+
+    SocketAddress getLocalAddress();
+
+}
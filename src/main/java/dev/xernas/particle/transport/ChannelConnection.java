@@ -0,0 +1,66 @@
+package dev.xernas.particle.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+// Blocking stream view of a SocketChannel, works for both inet and unix domain channels
+public class ChannelConnection implements Connection {
+
+    private final SocketChannel channel;
+    private final InputStream input;
+    private final OutputStream output;
+
+    public ChannelConnection(SocketChannel channel) {
+        this.channel = channel;
+        this.input = Channels.newInputStream(channel);
+        this.output = Channels.newOutputStream(channel);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen() && channel.isConnected();
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        try {
+            return channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
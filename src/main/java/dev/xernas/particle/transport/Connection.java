@@ -0,0 +1,30 @@
+package dev.xernas.particle.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+public interface Connection extends Closeable {
+
+    // Runs on the thread that will use the connection, before any stream is touched
+    default void handshake() throws IOException {}
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    boolean isOpen();
+
+    SocketAddress getLocalAddress();
+
+    SocketAddress getRemoteAddress();
+
+    // Only exposed when writing to it directly is the same as writing to the output stream, bulk transfers then use sendfile
+    default SocketChannel getChannel() {
+        return null;
+    }
+
+}
@@ -0,0 +1,38 @@
+package dev.xernas.particle.transport;
+
+import java.net.SocketAddress;
+import java.nio.file.Path;
+
+// A directory both processes can reach, the server watches it for new ring files
+public final class SharedMemoryAddress extends SocketAddress {
+
+    private final Path directory;
+
+    public SharedMemoryAddress(Path directory) {
+        this.directory = directory.toAbsolutePath().normalize();
+    }
+
+    public static SharedMemoryAddress of(String directory) {
+        return new SharedMemoryAddress(Path.of(directory));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SharedMemoryAddress other && directory.equals(other.directory);
+    }
+
+    @Override
+    public int hashCode() {
+        return directory.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "shm:" + directory;
+    }
+
+}
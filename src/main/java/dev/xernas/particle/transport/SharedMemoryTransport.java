@@ -0,0 +1,459 @@
+package dev.xernas.particle.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.ConnectException;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Each connection is one memory-mapped file holding two single-producer/single-consumer byte rings, one per direction.
+// Peers wait by spinning, then yielding, then parking. Liveness comes from file locks, which the OS drops when a process dies.
+public class SharedMemoryTransport implements Transport {
+
+    static final SharedMemoryTransport INSTANCE = new SharedMemoryTransport(1 << 20);
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final String RING_SUFFIX = ".ring";
+    private static final String SERVER_LOCK = "server.lock";
+    private static final int MAGIC = 0x50534D31;
+
+    // Header page layout, every counter sits on its own cache line
+    private static final int MAGIC_AT = 0;
+    private static final int CAPACITY_AT = 4;
+    private static final int STATE_AT = 8;
+    private static final int SERVER_LOCK_AT = 16;
+    private static final int CLIENT_LOCK_AT = 17;
+    private static final int CLIENT_RING_AT = 64;
+    private static final int SERVER_RING_AT = 256;
+    private static final int WRITE_OFFSET = 0;
+    private static final int READ_OFFSET = 64;
+    private static final int CLOSED_OFFSET = 128;
+    private static final int HEADER_SIZE = 4096;
+
+    private static final int PENDING = 0;
+    private static final int ACCEPTED = 1;
+    private static final int REFUSED = 2;
+
+    // Spinning only pays off when the peer runs on another core
+    private static final int SPIN_ROUNDS = Runtime.getRuntime().availableProcessors() > 1 ? 10_000 : 0;
+    private static final int YIELD_ROUNDS = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long LIVENESS_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long RESCAN_MILLIS = 1000;
+
+    // Directories served by this JVM. Closing any descriptor of a locked file drops every POSIX lock the process holds
+    // on it, so the liveness probe must never open server.lock while this process is the one holding it.
+    private static final Set<Path> BOUND = ConcurrentHashMap.newKeySet();
+
+    private final int ringCapacity;
+
+    public SharedMemoryTransport(int ringCapacity) {
+        if (ringCapacity < 1024 || Integer.bitCount(ringCapacity) != 1) throw new IllegalArgumentException("Ring capacity must be a power of two of at least 1024 bytes");
+        this.ringCapacity = ringCapacity;
+    }
+
+    @Override
+    public Connection connect(SocketAddress address) throws IOException {
+        SharedMemoryAddress shm = checked(address);
+        Path directory = shm.getDirectory();
+        if (!isServerAlive(directory)) throw new ConnectException("No shared memory server at " + directory);
+
+        Path temp = Files.createTempFile(directory, "particle-", ".tmp");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Path path = directory.resolve(temp.getFileName().toString().replace(".tmp", RING_SUFFIX));
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 2L * ringCapacity);
+            buffer.putInt(CAPACITY_AT, ringCapacity);
+            INT.setRelease(buffer, MAGIC_AT, MAGIC);
+            FileLock lock = channel.lock(CLIENT_LOCK_AT, 1, false);
+            // The server only ever sees complete files
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+
+            long deadline = System.nanoTime() + CONNECT_TIMEOUT_NANOS;
+            for (int round = 0; (int) INT.getAcquire(buffer, STATE_AT) == PENDING; round++) {
+                if (System.nanoTime() - deadline > 0 && INT.compareAndSet(buffer, STATE_AT, PENDING, REFUSED)) {
+                    throw new ConnectException("Shared memory server at " + directory + " did not accept the connection");
+                }
+                backoff(round);
+            }
+            return new RingConnection(shm, path, channel, buffer, lock, ringCapacity, false);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(temp);
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    @Override
+    public Acceptor bind(SocketAddress address) throws IOException {
+        SharedMemoryAddress shm = checked(address);
+        Path directory = Files.createDirectories(shm.getDirectory());
+        // Claimed before opening server.lock, a second descriptor would drop the lock of a server in this JVM when closed
+        Path bound = directory.toAbsolutePath().normalize();
+        if (!BOUND.add(bound)) throw new SocketException("Another server is bound to " + shm);
+        FileChannel lockChannel;
+        FileLock serverLock;
+        WatchService watcher;
+        try {
+            lockChannel = FileChannel.open(directory.resolve(SERVER_LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException e) {
+            BOUND.remove(bound);
+            throw e;
+        }
+        try {
+            serverLock = lockChannel.tryLock();
+            if (serverLock == null) throw new SocketException("Another server is bound to " + shm);
+            watcher = directory.getFileSystem().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            BOUND.remove(bound);
+            throw e;
+        }
+
+        return new Acceptor() {
+            private final Queue<Path> pending = new ArrayDeque<>();
+
+            {
+                scan();
+            }
+
+            @Override
+            public Connection accept() throws IOException {
+                while (true) {
+                    Path path = pending.poll();
+                    if (path != null) {
+                        Connection connection = tryAccept(shm, path);
+                        if (connection != null) return connection;
+                        continue;
+                    }
+                    WatchKey key;
+                    try {
+                        key = watcher.poll(RESCAN_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (ClosedWatchServiceException e) {
+                        throw new SocketException("Shared memory acceptor closed");
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while accepting");
+                    }
+                    // Some platforms poll slowly or drop events, a periodic scan catches what they miss
+                    if (key == null) {
+                        scan();
+                        continue;
+                    }
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) scan();
+                        else if (event.context() instanceof Path name && name.toString().endsWith(RING_SUFFIX)) pending.add(directory.resolve(name));
+                    }
+                    key.reset();
+                }
+            }
+
+            private void scan() throws IOException {
+                try (DirectoryStream<Path> rings = Files.newDirectoryStream(directory, "*" + RING_SUFFIX)) {
+                    for (Path ring : rings) if (!pending.contains(ring)) pending.add(ring);
+                }
+            }
+
+            @Override
+            public SocketAddress getLocalAddress() {
+                return shm;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    watcher.close();
+                } finally {
+                    BOUND.remove(bound);
+                    serverLock.release();
+                    lockChannel.close();
+                }
+            }
+        };
+    }
+
+    // Returns null when the file is gone, malformed, already claimed or its client died
+    private static Connection tryAccept(SharedMemoryAddress address, Path path) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE) return reject(channel, path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int capacity = buffer.getInt(CAPACITY_AT);
+            if ((int) INT.getAcquire(buffer, MAGIC_AT) != MAGIC || Integer.bitCount(capacity) != 1 || size != HEADER_SIZE + 2L * capacity) return reject(channel, path);
+            if (!isLocked(channel, CLIENT_LOCK_AT, 1)) return reject(channel, path);
+            FileLock lock = channel.lock(SERVER_LOCK_AT, 1, false);
+            if (!INT.compareAndSet(buffer, STATE_AT, PENDING, ACCEPTED)) {
+                lock.release();
+                channel.close();
+                return null;
+            }
+            try {
+                // Both sides keep their mapping, the name is not needed anymore
+                Files.delete(path);
+            } catch (IOException ignore) {
+                // Mapped files cannot be deleted on some platforms, close() retries
+            }
+            return new RingConnection(address, path, channel, buffer, lock, capacity, true);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Connection reject(FileChannel channel, Path path) throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+        return null;
+    }
+
+    private static boolean isServerAlive(Path directory) throws IOException {
+        if (BOUND.contains(directory.toAbsolutePath().normalize())) return true;
+        Path lockFile = directory.resolve(SERVER_LOCK);
+        if (!Files.exists(lockFile)) return false;
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            return isLocked(channel, 0, Long.MAX_VALUE);
+        }
+    }
+
+    private static boolean isLocked(FileChannel channel, long position, long size) {
+        try (FileLock probe = channel.tryLock(position, size, false)) {
+            return probe == null;
+        } catch (OverlappingFileLockException e) {
+            // Held by this JVM
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void backoff(int round) throws InterruptedIOException {
+        if (round < SPIN_ROUNDS) {
+            Thread.onSpinWait();
+            return;
+        }
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Interrupted while waiting on shared memory");
+        if (round < SPIN_ROUNDS + YIELD_ROUNDS) Thread.yield();
+        else LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1_000L << Math.min(20, round - SPIN_ROUNDS - YIELD_ROUNDS)));
+    }
+
+    private static SharedMemoryAddress checked(SocketAddress address) {
+        if (address instanceof SharedMemoryAddress shm) return shm;
+        throw new IllegalArgumentException("Not a shared memory address: " + address);
+    }
+
+    public int getRingCapacity() {
+        return ringCapacity;
+    }
+
+    public static class RingConnection implements Connection {
+
+        private final SharedMemoryAddress address;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final FileLock lock;
+        private final int capacity;
+        private final int peerLockAt;
+        private final int peerClosedAt;
+        private final int ownClosedAt;
+        private final InputStream input;
+        private final OutputStream output;
+
+        private volatile boolean closed = false;
+        private volatile boolean peerGone = false;
+        private volatile long nextLivenessCheck = 0;
+
+        private RingConnection(SharedMemoryAddress address, Path path, FileChannel channel, MappedByteBuffer buffer, FileLock lock, int capacity, boolean server) {
+            this.address = address;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.lock = lock;
+            this.capacity = capacity;
+            int inRing = server ? CLIENT_RING_AT : SERVER_RING_AT;
+            int outRing = server ? SERVER_RING_AT : CLIENT_RING_AT;
+            this.peerLockAt = server ? CLIENT_LOCK_AT : SERVER_LOCK_AT;
+            this.peerClosedAt = inRing + CLOSED_OFFSET;
+            this.ownClosedAt = outRing + CLOSED_OFFSET;
+            int clientData = HEADER_SIZE;
+            int serverData = HEADER_SIZE + capacity;
+            this.input = new RingInputStream(inRing, server ? clientData : serverData);
+            this.output = new RingOutputStream(outRing, server ? serverData : clientData);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public boolean isOpen() {
+            if (closed || peerGone) return false;
+            if ((int) INT.getAcquire(buffer, peerClosedAt) != 0) return false;
+            long now = System.nanoTime();
+            if (now - nextLivenessCheck < 0) return true;
+            nextLivenessCheck = now + LIVENESS_CHECK_NANOS;
+            if (isLocked(channel, peerLockAt, 1)) return true;
+            peerGone = true;
+            return false;
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return address;
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() {
+            return address;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            INT.setRelease(buffer, ownClosedAt, 1);
+            try {
+                lock.release();
+                channel.close();
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        private class RingInputStream extends InputStream {
+
+            private final int writeAt;
+            private final int readAt;
+            private final int dataAt;
+            private long readPosition;
+
+            private RingInputStream(int ringAt, int dataAt) {
+                this.writeAt = ringAt + WRITE_OFFSET;
+                this.readAt = ringAt + READ_OFFSET;
+                this.dataAt = dataAt;
+                this.readPosition = (long) LONG.getAcquire(buffer, readAt);
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) return 0;
+                long readable;
+                for (int round = 0; (readable = (long) LONG.getAcquire(buffer, writeAt) - readPosition) == 0; round++) {
+                    // The peer may have written its last bytes right before closing
+                    if (round >= SPIN_ROUNDS && !isOpen() && (long) LONG.getAcquire(buffer, writeAt) == readPosition) return -1;
+                    backoff(round);
+                }
+                int read = (int) Math.min(length, readable);
+                int index = (int) (readPosition & (capacity - 1));
+                int first = Math.min(read, capacity - index);
+                buffer.get(dataAt + index, bytes, offset, first);
+                if (first < read) buffer.get(dataAt, bytes, offset + first, read - first);
+                readPosition += read;
+                LONG.setRelease(buffer, readAt, readPosition);
+                return read;
+            }
+
+            @Override
+            public int available() {
+                if (closed) return 0;
+                return (int) Math.min(Integer.MAX_VALUE, (long) LONG.getAcquire(buffer, writeAt) - readPosition);
+            }
+
+        }
+
+        private class RingOutputStream extends OutputStream {
+
+            private final int writeAt;
+            private final int readAt;
+            private final int dataAt;
+            private long writePosition;
+
+            private RingOutputStream(int ringAt, int dataAt) {
+                this.writeAt = ringAt + WRITE_OFFSET;
+                this.readAt = ringAt + READ_OFFSET;
+                this.dataAt = dataAt;
+                this.writePosition = (long) LONG.getAcquire(buffer, writeAt);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+                while (length > 0) {
+                    if (closed) throw new SocketException("Connection closed");
+                    long free;
+                    for (int round = 0; (free = capacity - (writePosition - (long) LONG.getAcquire(buffer, readAt))) == 0; round++) {
+                        if (round >= SPIN_ROUNDS && !isOpen()) throw new EOFException("Shared memory peer is gone");
+                        backoff(round);
+                    }
+                    if ((int) INT.getAcquire(buffer, peerClosedAt) != 0) throw new EOFException("Shared memory peer closed the connection");
+                    int written = (int) Math.min(length, free);
+                    int index = (int) (writePosition & (capacity - 1));
+                    int first = Math.min(written, capacity - index);
+                    buffer.put(dataAt + index, bytes, offset, first);
+                    if (first < written) buffer.put(dataAt, bytes, offset + first, written - first);
+                    writePosition += written;
+                    LONG.setRelease(buffer, writeAt, writePosition);
+                    offset += written;
+                    length -= written;
+                }
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+package dev.xernas.particle.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+public class SocketTransport implements Transport {
+
+    static final SocketTransport INSTANCE = new SocketTransport();
+    private static final boolean REUSE_PORT = probeReusePort();
+
+    @Override
+    public Connection connect(SocketAddress address) throws IOException {
+        // Channel-backed sockets let bulk transfers go through sendfile
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new SocketConnection(channel.socket());
+    }
+
+    @Override
+    public Acceptor bind(SocketAddress address) throws IOException {
+        return bind(address, false);
+    }
+
+    @Override
+    public Acceptor bind(SocketAddress address, boolean reusePort) throws IOException {
+        if (reusePort && !REUSE_PORT) throw new IOException("SO_REUSEPORT is not supported on this platform");
+        ServerSocketChannel server = UnixTransport.openServer(address, reusePort);
+        return new Acceptor() {
+            @Override
+            public Connection accept() throws IOException {
+                return new SocketConnection(server.accept().socket());
+            }
+
+            @Override
+            public SocketAddress getLocalAddress() {
+                return server.socket().getLocalSocketAddress();
+            }
+
+            @Override
+            public void close() throws IOException {
+                server.close();
+            }
+        };
+    }
+
+    @Override
+    public boolean supportsReusePort(SocketAddress address) {
+        return REUSE_PORT;
+    }
+
+    private static boolean probeReusePort() {
+        try (ServerSocket probe = new ServerSocket()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static class SocketConnection implements Connection {
+
+        private final Socket socket;
+
+        public SocketConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return socket.isConnected() && !socket.isClosed();
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return socket.getLocalSocketAddress();
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() {
+            return socket.getRemoteSocketAddress();
+        }
+
+        @Override
+        public SocketChannel getChannel() {
+            return socket.getChannel();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,305 @@
+package dev.xernas.particle.transport;
+
+import dev.xernas.particle.utils.BufferPool;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+// Blocking SSLEngine transport. Clients reuse the context session cache, so reconnects resume with a session ticket instead of a full handshake.
+public class TlsTransport implements Transport {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int PACKET_BUFFER_SIZE = 17 * 1024;
+    private static final BufferPool BUFFERS = new BufferPool(PACKET_BUFFER_SIZE, 1024);
+
+    private final SSLContext context;
+
+    public TlsTransport(SSLContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public Connection connect(SocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        SSLEngine engine;
+        if (address instanceof InetSocketAddress inet) engine = context.createSSLEngine(inet.getHostString(), inet.getPort());
+        else engine = context.createSSLEngine();
+        engine.setUseClientMode(true);
+        return new TlsConnection(channel, engine);
+    }
+
+    @Override
+    public Acceptor bind(SocketAddress address) throws IOException {
+        return bind(address, false);
+    }
+
+    @Override
+    public Acceptor bind(SocketAddress address, boolean reusePort) throws IOException {
+        ServerSocketChannel server = UnixTransport.openServer(address, reusePort);
+        return new Acceptor() {
+            @Override
+            public Connection accept() throws IOException {
+                SSLEngine engine = context.createSSLEngine();
+                engine.setUseClientMode(false);
+                return new TlsConnection(server.accept(), engine);
+            }
+
+            @Override
+            public SocketAddress getLocalAddress() {
+                return address;
+            }
+
+            @Override
+            public void close() throws IOException {
+                UnixTransport.closeServer(server, address);
+            }
+        };
+    }
+
+    @Override
+    public boolean supportsReusePort(SocketAddress address) {
+        return address instanceof InetSocketAddress && Transport.tcp().supportsReusePort(address);
+    }
+
+    public SSLContext getContext() {
+        return context;
+    }
+
+    public static class TlsConnection implements Connection {
+
+        private final SocketChannel channel;
+        private final ChannelConnection raw;
+        private final SSLEngine engine;
+        private final Object readLock = new Object();
+        private final Object writeLock = new Object();
+        private final InputStream input = new TlsInputStream();
+        private final OutputStream output = new TlsOutputStream();
+
+        // netIn is kept in write mode, plain in read mode
+        private ByteBuffer netIn;
+        private ByteBuffer netOut;
+        private ByteBuffer plain;
+        private volatile boolean closed = false;
+
+        private TlsConnection(SocketChannel channel, SSLEngine engine) {
+            this.channel = channel;
+            this.raw = new ChannelConnection(channel);
+            this.engine = engine;
+            SSLSession session = engine.getSession();
+            this.netIn = BUFFERS.acquire(session.getPacketBufferSize());
+            this.netOut = BUFFERS.acquire(session.getPacketBufferSize());
+            this.plain = BUFFERS.acquire(session.getApplicationBufferSize()).flip();
+        }
+
+        @Override
+        public void handshake() throws IOException {
+            engine.beginHandshake();
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            synchronized (readLock) {
+                while (status != SSLEngineResult.HandshakeStatus.FINISHED && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                    switch (status) {
+                        case NEED_WRAP -> status = wrap(EMPTY).getHandshakeStatus();
+                        case NEED_TASK -> status = runTasks();
+                        case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                            plain.compact();
+                            SSLEngineResult result = unwrap(plain);
+                            plain.flip();
+                            if (result == null) throw new EOFException("Connection closed during TLS handshake");
+                            status = result.getHandshakeStatus();
+                        }
+                    }
+                }
+            }
+        }
+
+        // Returns null at end of stream, the caller holds readLock
+        private SSLEngineResult unwrap(ByteBuffer target) throws IOException {
+            while (true) {
+                netIn.flip();
+                SSLEngineResult result = engine.unwrap(netIn, target);
+                netIn.compact();
+                switch (result.getStatus()) {
+                    case OK -> {
+                        return result;
+                    }
+                    case CLOSED -> {
+                        return null;
+                    }
+                    case BUFFER_OVERFLOW -> {
+                        return result;
+                    }
+                    case BUFFER_UNDERFLOW -> {
+                        if (!netIn.hasRemaining()) netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                        if (channel.read(netIn) < 0) return null;
+                    }
+                }
+            }
+        }
+
+        private SSLEngineResult wrap(ByteBuffer source) throws IOException {
+            synchronized (writeLock) {
+                netOut.clear();
+                SSLEngineResult result = engine.wrap(source, netOut);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED && source.hasRemaining()) throw new SSLException("TLS connection closed");
+                netOut.flip();
+                while (netOut.hasRemaining()) channel.write(netOut);
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) runTasks();
+                return result;
+            }
+        }
+
+        private SSLEngineResult.HandshakeStatus runTasks() {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) task.run();
+            return engine.getHandshakeStatus();
+        }
+
+        // Post-handshake messages such as session tickets or key updates
+        private void answerHandshake(SSLEngineResult result) throws IOException {
+            SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) status = runTasks();
+            if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) wrap(EMPTY);
+        }
+
+        private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(capacity, buffer.capacity() * 2));
+            buffer.flip();
+            grown.put(buffer);
+            BUFFERS.release(buffer);
+            return grown;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed && channel.isOpen();
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return raw.getLocalAddress();
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() {
+            return raw.getRemoteAddress();
+        }
+
+        public SSLSession getSession() {
+            return engine.getSession();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                engine.closeOutbound();
+                if (channel.isOpen()) wrap(EMPTY);
+            } catch (IOException ignore) {
+                // The peer may already be gone, close_notify is best effort
+            } finally {
+                // Wakes up a blocked reader so it gives up the read lock
+                channel.close();
+                synchronized (writeLock) {
+                    BUFFERS.release(netOut);
+                    netOut = null;
+                }
+                synchronized (readLock) {
+                    BUFFERS.release(netIn);
+                    BUFFERS.release(plain);
+                    netIn = null;
+                    plain = null;
+                }
+            }
+        }
+
+        private class TlsInputStream extends InputStream {
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) return 0;
+                synchronized (readLock) {
+                    if (plain == null) return -1;
+                    while (!plain.hasRemaining()) {
+                        // Large reads decrypt straight into the caller's array, skipping the plaintext buffer
+                        boolean direct = length >= engine.getSession().getApplicationBufferSize();
+                        ByteBuffer target = direct ? ByteBuffer.wrap(bytes, offset, length) : plain.clear();
+                        SSLEngineResult result = unwrap(target);
+                        if (!direct) plain.flip();
+                        if (result == null) return -1;
+                        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                            plain = grow(plain, engine.getSession().getApplicationBufferSize()).flip();
+                            continue;
+                        }
+                        answerHandshake(result);
+                        if (direct && result.bytesProduced() > 0) return result.bytesProduced();
+                    }
+                    int read = Math.min(length, plain.remaining());
+                    plain.get(bytes, offset, read);
+                    return read;
+                }
+            }
+
+            @Override
+            public int available() throws IOException {
+                synchronized (readLock) {
+                    if (plain == null) return 0;
+                    if (plain.hasRemaining()) return plain.remaining();
+                    // Buffered or pending encrypted bytes mean a read will make progress
+                    if (netIn.position() > 0) return 1;
+                }
+                return raw.getInputStream().available();
+            }
+
+        }
+
+        private class TlsOutputStream extends OutputStream {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                // Encrypts from the caller's array, no intermediate copy
+                ByteBuffer source = ByteBuffer.wrap(bytes, offset, length);
+                synchronized (writeLock) {
+                    if (netOut == null) throw new SSLException("TLS connection closed");
+                    while (source.hasRemaining()) wrap(source);
+                }
+            }
+
+        }
+
+    }
+
+}
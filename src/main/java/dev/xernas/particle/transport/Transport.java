@@ -0,0 +1,44 @@
+package dev.xernas.particle.transport;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+
+public interface Transport {
+
+    Connection connect(SocketAddress address) throws IOException;
+
+    Acceptor bind(SocketAddress address) throws IOException;
+
+    // Several acceptors bound with SO_REUSEPORT share the address and the kernel spreads connections between them
+    default Acceptor bind(SocketAddress address, boolean reusePort) throws IOException {
+        if (reusePort) throw new IOException(getClass().getSimpleName() + " does not support SO_REUSEPORT");
+        return bind(address);
+    }
+
+    default boolean supportsReusePort(SocketAddress address) {
+        return false;
+    }
+
+    static Transport tcp() {
+        return SocketTransport.INSTANCE;
+    }
+
+    static Transport unix() {
+        return UnixTransport.INSTANCE;
+    }
+
+    static Transport sharedMemory() {
+        return SharedMemoryTransport.INSTANCE;
+    }
+
+    // TLS when a context is given, then by address type. Shared memory never leaves the host, so TLS does not apply to it.
+    static Transport forAddress(SocketAddress address, SSLContext context) {
+        if (address instanceof SharedMemoryAddress) return sharedMemory();
+        if (context != null) return new TlsTransport(context);
+        if (address instanceof UnixDomainSocketAddress) return unix();
+        return tcp();
+    }
+
+}
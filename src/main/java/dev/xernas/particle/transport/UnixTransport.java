@@ -0,0 +1,79 @@
+package dev.xernas.particle.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Same-host peers skip the loopback TCP stack, the address is a socket file path
+public class UnixTransport implements Transport {
+
+    static final UnixTransport INSTANCE = new UnixTransport();
+
+    @Override
+    public Connection connect(SocketAddress address) throws IOException {
+        return new ChannelConnection(SocketChannel.open(checked(address)));
+    }
+
+    @Override
+    public Acceptor bind(SocketAddress address) throws IOException {
+        ServerSocketChannel server = openServer(address, false);
+        return new Acceptor() {
+            @Override
+            public Connection accept() throws IOException {
+                return new ChannelConnection(server.accept());
+            }
+
+            @Override
+            public SocketAddress getLocalAddress() {
+                return address;
+            }
+
+            @Override
+            public void close() throws IOException {
+                closeServer(server, address);
+            }
+        };
+    }
+
+    // Binds inet and unix domain addresses alike, shared with the TLS transport
+    static ServerSocketChannel openServer(SocketAddress address, boolean reusePort) throws IOException {
+        ServerSocketChannel server;
+        if (address instanceof UnixDomainSocketAddress unix) {
+            Path path = unix.getPath();
+            // A server that crashed leaves its socket file behind and binding would fail
+            if (Files.exists(path) && !Files.isRegularFile(path) && !Files.isDirectory(path)) Files.delete(path);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else server = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                if (!server.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) throw new IOException("SO_REUSEPORT is not supported for " + address);
+                server.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            server.bind(address);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    static void closeServer(ServerSocketChannel server, SocketAddress address) throws IOException {
+        try {
+            server.close();
+        } finally {
+            if (address instanceof UnixDomainSocketAddress unix) Files.deleteIfExists(unix.getPath());
+        }
+    }
+
+    private static UnixDomainSocketAddress checked(SocketAddress address) {
+        if (address instanceof UnixDomainSocketAddress unix) return unix;
+        throw new IllegalArgumentException("Not a unix domain socket address: " + address);
+    }
+
+}
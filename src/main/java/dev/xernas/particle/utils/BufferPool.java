@@ -0,0 +1,61 @@
+package dev.xernas.particle.utils;
+
+import dev.xernas.particle.jfr.BufferPoolExhaustedEvent;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Recycles direct buffers, allocating them is far more expensive than reusing them
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> pooled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public ByteBuffer acquire() {
+        return acquire(bufferSize);
+    }
+
+    public ByteBuffer acquire(int capacity) {
+        if (capacity <= bufferSize) {
+            ByteBuffer buffer = pooled.poll();
+            if (buffer != null) {
+                size.decrementAndGet();
+                return buffer.clear();
+            }
+            BufferPoolExhaustedEvent event = new BufferPoolExhaustedEvent();
+            if (event.shouldCommit()) {
+                event.bufferSize = bufferSize;
+                event.maxPooled = maxPooled;
+                event.commit();
+            }
+        }
+        return ByteBuffer.allocateDirect(Math.max(capacity, bufferSize));
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) return;
+        if (size.incrementAndGet() > maxPooled) {
+            size.decrementAndGet();
+            return;
+        }
+        pooled.add(buffer);
+    }
+
+    public int getPooledCount() {
+        return size.get();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+}
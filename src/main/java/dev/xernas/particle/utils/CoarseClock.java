@@ -0,0 +1,53 @@
+package dev.xernas.particle.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// A volatile read instead of System.nanoTime on hot paths, refreshed by one background thread
+public class CoarseClock {
+
+    private static volatile CoarseClock shared;
+
+    private final long resolutionNanos;
+    private final Thread ticker;
+
+    private volatile long nanos = System.nanoTime();
+    private volatile boolean running = true;
+
+    public CoarseClock(long resolution, TimeUnit unit, String name) {
+        this.resolutionNanos = Math.max(1, unit.toNanos(resolution));
+        this.ticker = new Thread(this::run, name);
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    public static CoarseClock shared() {
+        if (shared == null) {
+            synchronized (CoarseClock.class) {
+                if (shared == null) shared = new CoarseClock(1, TimeUnit.MILLISECONDS, "particle-clock");
+            }
+        }
+        return shared;
+    }
+
+    public long nanoTime() {
+        return nanos;
+    }
+
+    public long getResolutionNanos() {
+        return resolutionNanos;
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+    private void run() {
+        while (running) {
+            nanos = System.nanoTime();
+            LockSupport.parkNanos(resolutionNanos);
+        }
+    }
+
+}
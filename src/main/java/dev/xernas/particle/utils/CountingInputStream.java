@@ -0,0 +1,53 @@
+package dev.xernas.particle.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class CountingInputStream extends FilterInputStream {
+
+    private long count = 0;
+    private OutputStream tap;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value != -1) {
+            count++;
+            if (tap != null) tap.write(value);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            count += read;
+            if (tap != null) tap.write(b, off, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    // Receives a copy of every byte read from now on, null stops copying. Skipped bytes are not copied.
+    public void setTap(OutputStream tap) {
+        this.tap = tap;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+}
@@ -0,0 +1,37 @@
+package dev.xernas.particle.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CountingOutputStream extends FilterOutputStream {
+
+    private final LongAdder count = new LongAdder();
+
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count.add(len);
+    }
+
+    // Bytes written to the underlying channel directly, bypassing this stream
+    public void add(long bytes) {
+        count.add(bytes);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+}
@@ -0,0 +1,126 @@
+package dev.xernas.particle.utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Open addressing set of non-negative ints, no boxing and one array per set
+public class IntSet {
+
+    private static final int EMPTY = 0;
+
+    // Values are stored shifted by one so zero can mark empty slots
+    private int[] slots;
+    private int size = 0;
+
+    public IntSet() {
+        this(8);
+    }
+
+    public IntSet(int expected) {
+        int capacity = 8;
+        while (capacity * 3 < expected * 4) capacity <<= 1;
+        this.slots = new int[capacity];
+    }
+
+    public boolean add(int value) {
+        if (value < 0) throw new IllegalArgumentException("IntSet only holds non-negative values");
+        if ((size + 1) * 4 > slots.length * 3) rehash(slots.length << 1);
+        int stored = value + 1;
+        int mask = slots.length - 1;
+        int index = mix(value) & mask;
+        while (slots[index] != EMPTY) {
+            if (slots[index] == stored) return false;
+            index = (index + 1) & mask;
+        }
+        slots[index] = stored;
+        size++;
+        return true;
+    }
+
+    public boolean remove(int value) {
+        if (value < 0) return false;
+        int stored = value + 1;
+        int mask = slots.length - 1;
+        int index = mix(value) & mask;
+        while (slots[index] != stored) {
+            if (slots[index] == EMPTY) return false;
+            index = (index + 1) & mask;
+        }
+        slots[index] = EMPTY;
+        size--;
+
+        // Shift the rest of the probe run back so lookups never stop early
+        int next = (index + 1) & mask;
+        while (slots[next] != EMPTY) {
+            int home = mix(slots[next] - 1) & mask;
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                slots[index] = slots[next];
+                slots[next] = EMPTY;
+                index = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) return false;
+        int stored = value + 1;
+        int mask = slots.length - 1;
+        int index = mix(value) & mask;
+        while (slots[index] != EMPTY) {
+            if (slots[index] == stored) return true;
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public void addAll(IntSet other) {
+        for (int stored : other.slots) {
+            if (stored != EMPTY) add(stored - 1);
+        }
+    }
+
+    public void forEach(IntConsumer consumer) {
+        for (int stored : slots) {
+            if (stored != EMPTY) consumer.accept(stored - 1);
+        }
+    }
+
+    public int[] toArray() {
+        int[] values = new int[size];
+        int i = 0;
+        for (int stored : slots) {
+            if (stored != EMPTY) values[i++] = stored - 1;
+        }
+        return values;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = slots;
+        slots = new int[capacity];
+        size = 0;
+        for (int stored : old) {
+            if (stored != EMPTY) add(stored - 1);
+        }
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
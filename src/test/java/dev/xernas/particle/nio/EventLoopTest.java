@@ -0,0 +1,193 @@
+package dev.xernas.particle.nio;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.client.Client;
+import dev.xernas.particle.client.NioTCPClient;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.message.StringMessageIO;
+import dev.xernas.particle.server.NioTCPServer;
+import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.tasks.Task;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventLoopTest {
+
+    // Nothing else is registered, so only the loop itself can pick up a task queued while it handles a key
+    @Test
+    void tasksQueuedWhileHandlingKeysRun() throws Exception {
+        EventLoopGroup group = new EventLoopGroup(1);
+        EventLoop loop = group.next();
+        Pipe pipe = Pipe.open();
+        CountDownLatch ran = new CountDownLatch(1);
+        try {
+            pipe.source().configureBlocking(false);
+            loop.register(pipe.source(), SelectionKey.OP_READ, new ChannelHandler() {
+
+                @Override
+                public void handle(SelectionKey key) throws IOException {
+                    pipe.source().read(ByteBuffer.allocate(16));
+                    loop.execute(() -> loop.execute(ran::countDown));
+                }
+
+                @Override
+                public void onError(Exception e) {}
+
+            }).get(5, TimeUnit.SECONDS);
+            pipe.sink().write(ByteBuffer.wrap(new byte[1]));
+            assertTrue(ran.await(5, TimeUnit.SECONDS), "Task queued from the event loop never ran");
+        } finally {
+            pipe.sink().close();
+            group.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    // Server and client share the only loop, so every registration and flush is queued from the loop thread itself
+    @Test
+    void singleThreadGroupConnectsSendsAndEchoes() throws Exception {
+        EventLoopGroup group = new EventLoopGroup(1);
+        int port = freePort();
+        EchoServer server = new EchoServer(group, port);
+        Thread listener = new Thread(() -> {
+            try {
+                server.listen();
+            } catch (ServerException e) {
+                e.printStackTrace();
+            }
+        });
+        listener.start();
+        try {
+            assertTrue(server.started.await(5, TimeUnit.SECONDS));
+            EchoClient client = new EchoClient(group, port);
+            client.connectAsync().get(5, TimeUnit.SECONDS);
+            assertTrue(server.connected.await(5, TimeUnit.SECONDS), "First connection was never registered");
+
+            for (int i = 0; i < 10; i++) {
+                client.send("message " + i);
+                assertEquals("message " + i, client.replies.poll(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            server.stop();
+            listener.join(TimeUnit.SECONDS.toMillis(10));
+            group.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class EchoServer extends NioTCPServer<String, String> {
+
+        private final int port;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch connected = new CountDownLatch(1);
+
+        private EchoServer(EventLoopGroup group, int port) {
+            super(group);
+            this.port = port;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public MessageIO<String, String> getMessageIO(UUID clientId) {
+            return new StringMessageIO();
+        }
+
+        @Override
+        public void onServerStart() {
+            started.countDown();
+        }
+
+        @Override
+        public void onClientConnect(UUID clientId, Particle particle) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onMessage(UUID clientId, String message, Particle particle) throws ServerException {
+            // Pings decode as empty strings
+            if (!message.isEmpty()) send(clientId, message);
+        }
+
+        @Override
+        public void onClientDisconnect(UUID clientId, Particle particle) {}
+
+        @Override
+        public void onClientConnectionEnd(UUID clientId, Client<String, String> disconnectedClient) {}
+
+        @Override
+        public void onServerStop() {}
+
+    }
+
+    private static class EchoClient extends NioTCPClient<String, String> {
+
+        private final int port;
+        private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+        private EchoClient(EventLoopGroup group, int port) {
+            super(group);
+            this.port = port;
+        }
+
+        @Override
+        public String getHost() {
+            return "localhost";
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public @NotNull MessageIO<String, String> getMessageIO() {
+            return new StringMessageIO();
+        }
+
+        @Override
+        public void onConnect(Particle particle) {}
+
+        @Override
+        public void onMessage(String message, Particle particle) {
+            if (!message.isEmpty()) replies.add(message);
+        }
+
+        @Override
+        public void onDisconnect() {}
+
+    }
+
+}
@@ -0,0 +1,204 @@
+package dev.xernas.particle.server;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.client.Client;
+import dev.xernas.particle.client.NioTCPClient;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.nio.EventLoopGroup;
+import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.tasks.Task;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NioTCPServerTest {
+
+    private static final byte[] GREETING = "welcome".getBytes();
+
+    // One loop serves the acceptor and every session, the first connection must be served without a second one
+    @Test
+    void sessionRoundTripOnSingleLoop() throws Exception {
+        EventLoopGroup serverGroup = new EventLoopGroup(1);
+        EventLoopGroup clientGroup = new EventLoopGroup(1);
+        int port = freePort();
+        EchoServer server = new EchoServer(serverGroup, port);
+        Thread listener = new Thread(() -> {
+            try {
+                server.listen();
+            } catch (ServerException e) {
+                e.printStackTrace();
+            }
+        });
+        listener.start();
+        try {
+            assertTrue(server.started.await(5, TimeUnit.SECONDS));
+            BytesClient client = new BytesClient(clientGroup, port);
+            client.connectAsync().get(5, TimeUnit.SECONDS);
+
+            UUID clientId = server.connected.poll(5, TimeUnit.SECONDS);
+            assertNotNull(clientId, "First connection was never registered");
+            assertArrayEquals(GREETING, client.received.poll(5, TimeUnit.SECONDS));
+
+            client.send("ping".getBytes());
+            assertArrayEquals("ping".getBytes(), client.received.poll(5, TimeUnit.SECONDS));
+
+            // Far more than the socket takes at once, the rest goes through the session's write backlog
+            byte[] large = new byte[4 * 1024 * 1024];
+            Arrays.fill(large, (byte) 7);
+            client.send(large);
+            assertArrayEquals(large, client.received.poll(10, TimeUnit.SECONDS));
+
+            client.disconnect();
+            assertTrue(server.ended.await(5, TimeUnit.SECONDS));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.getClient(clientId) != null && System.nanoTime() < deadline) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            assertEquals(0, server.getConnectedClients().size());
+        } finally {
+            server.stop();
+            listener.join(TimeUnit.SECONDS.toMillis(10));
+            serverGroup.shutdown(5, TimeUnit.SECONDS);
+            clientGroup.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Length prefixed, a ping reads as an empty array
+    private static class BytesMessageIO implements MessageIO<byte[], byte[]> {
+
+        @Override
+        public byte[] read(Particle particle) throws Particle.ReadException {
+            return particle.readBytes(particle.readInt());
+        }
+
+        @Override
+        public void write(byte[] message, Particle particle) throws Particle.WriteException {
+            particle.writeInt(message.length);
+            particle.writeBytes(message);
+        }
+
+    }
+
+    private static class EchoServer extends NioTCPServer<byte[], byte[]> {
+
+        private final int port;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final BlockingQueue<UUID> connected = new LinkedBlockingQueue<>();
+        private final CountDownLatch ended = new CountDownLatch(1);
+
+        private EchoServer(EventLoopGroup group, int port) {
+            super(group);
+            this.port = port;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public MessageIO<byte[], byte[]> getMessageIO(UUID clientId) {
+            return new BytesMessageIO();
+        }
+
+        @Override
+        public void onServerStart() {
+            started.countDown();
+        }
+
+        @Override
+        public void onClientConnect(UUID clientId, Particle particle) throws ServerException {
+            connected.add(clientId);
+            try {
+                getMessageIO(clientId).write(GREETING, particle);
+            } catch (Particle.WriteException e) {
+                throw new ServerException("Failed to greet", e);
+            }
+        }
+
+        @Override
+        public void onMessage(UUID clientId, byte[] message, Particle particle) throws ServerException {
+            if (message.length > 0) send(clientId, message);
+        }
+
+        @Override
+        public void onClientDisconnect(UUID clientId, Particle particle) {}
+
+        @Override
+        public void onClientConnectionEnd(UUID clientId, Client<byte[], byte[]> disconnectedClient) {
+            ended.countDown();
+        }
+
+        @Override
+        public void onServerStop() {}
+
+    }
+
+    private static class BytesClient extends NioTCPClient<byte[], byte[]> {
+
+        private final int port;
+        private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+
+        private BytesClient(EventLoopGroup group, int port) {
+            super(group);
+            this.port = port;
+        }
+
+        @Override
+        public String getHost() {
+            return "localhost";
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public @NotNull MessageIO<byte[], byte[]> getMessageIO() {
+            return new BytesMessageIO();
+        }
+
+        @Override
+        public void onConnect(Particle particle) {}
+
+        @Override
+        public void onMessage(byte[] message, Particle particle) {
+            if (message.length > 0) received.add(message);
+        }
+
+        @Override
+        public void onDisconnect() {}
+
+    }
+
+}
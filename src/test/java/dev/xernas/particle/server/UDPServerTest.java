@@ -0,0 +1,307 @@
+package dev.xernas.particle.server;
+
+import dev.xernas.particle.Particle;
+import dev.xernas.particle.aggregation.DatagramAggregator;
+import dev.xernas.particle.client.Client;
+import dev.xernas.particle.client.UDPClient;
+import dev.xernas.particle.client.exceptions.ClientException;
+import dev.xernas.particle.interest.InterestGrid;
+import dev.xernas.particle.message.MessageIO;
+import dev.xernas.particle.message.StringMessageIO;
+import dev.xernas.particle.ratelimit.TrafficShaper;
+import dev.xernas.particle.server.exceptions.ServerException;
+import dev.xernas.particle.tasks.Task;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UDPServerTest {
+
+    private static final int MESSAGES = 50;
+
+    private CollectingServer server;
+    private StringClient client;
+    private Thread listener;
+    private Thread receiver;
+
+    @AfterEach
+    void stop() throws Exception {
+        if (client != null) client.disconnect();
+        if (server != null) server.stop();
+        if (listener != null) listener.join(TimeUnit.SECONDS.toMillis(10));
+        if (receiver != null) receiver.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    @Test
+    void aggregatedDatagramReachesOnMessageInOrder() throws Exception {
+        server = new CollectingServer(freePort());
+        server.enableAggregation(DatagramAggregator.DEFAULT_MAX_DATAGRAM_SIZE, 1, TimeUnit.MILLISECONDS);
+        client = new StringClient(server.getPort());
+        // Lingers long enough that the whole batch only goes out on flushAll
+        DatagramAggregator aggregator = client.enableAggregation(DatagramAggregator.DEFAULT_MAX_DATAGRAM_SIZE, 1, TimeUnit.MINUTES);
+        UUID clientId = connect();
+
+        List<String> sent = send(MESSAGES);
+        aggregator.flushAll();
+        assertEquals(1, aggregator.getDatagramCount());
+
+        assertEquals(sent, receive(MESSAGES));
+        // Every message of the datagram belongs to the session the connect ping opened
+        assertEquals(List.of(clientId), server.senders.stream().distinct().toList());
+    }
+
+    @Test
+    void droppedMessagesAreCountedForTheSession() throws Exception {
+        // A single accept, the session's later datagrams must not be charged as accepts
+        TrafficShaper shaper = new TrafficShaper(new TrafficShaper.Limit(0.001, 1), new TrafficShaper.Limit(0.001, 5), null, TrafficShaper.Action.DROP);
+        server = new CollectingServer(freePort());
+        server.enableTrafficShaping(shaper);
+        client = new StringClient(server.getPort());
+        UUID clientId = connect();
+
+        List<String> sent = send(20);
+        assertEquals(sent.subList(0, 5), receive(5));
+        awaitShaped(shaper, 20);
+        assertEquals(15, shaper.getDropped());
+        assertEquals(15, shaper.getThrottledCount(clientId));
+        assertEquals(0, shaper.getRejectedAccepts());
+        assertTrue(server.received.isEmpty());
+    }
+
+    @Test
+    void delayedMessagesArriveLateAndInOrder() throws Exception {
+        TrafficShaper shaper = new TrafficShaper(null, new TrafficShaper.Limit(50, 1), null, TrafficShaper.Action.DELAY);
+        server = new CollectingServer(freePort());
+        server.enableTrafficShaping(shaper);
+        client = new StringClient(server.getPort());
+        connect();
+
+        long start = System.nanoTime();
+        List<String> sent = send(10);
+        assertEquals(sent, receive(10));
+        // Nine messages past the burst at 50 per second
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertTrue(shaper.getDelayed() > 0);
+        assertEquals(0, shaper.getDropped());
+    }
+
+    @Test
+    void disconnectVerdictEndsTheSession() throws Exception {
+        TrafficShaper shaper = new TrafficShaper(null, new TrafficShaper.Limit(0.001, 2), null, TrafficShaper.Action.DISCONNECT);
+        server = new CollectingServer(freePort());
+        server.enableTrafficShaping(shaper);
+        client = new StringClient(server.getPort());
+        UUID clientId = connect();
+
+        List<String> sent = send(3);
+        assertEquals(sent.subList(0, 2), receive(2));
+        assertEquals(clientId, server.ended.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, shaper.getDisconnected());
+        assertEquals(0, shaper.getThrottledCount(clientId), "The ended session's limiter is forgotten");
+    }
+
+    @Test
+    void interestGridPublishesToNearbySessions() throws Exception {
+        server = new CollectingServer(freePort());
+        client = new StringClient(server.getPort());
+        UUID near = connect();
+        StringClient far = new StringClient(server.getPort());
+        Thread farReceiver = start(far::connect);
+        try {
+            assertTrue(far.connected.await(5, TimeUnit.SECONDS));
+            UUID farId = server.connected.poll(5, TimeUnit.SECONDS);
+            assertNotNull(farId);
+
+            InterestGrid<String, String> grid = new InterestGrid<>(server, new StringMessageIO(), 16);
+            grid.update(near, 1, 1);
+            grid.update(farId, 500, 500);
+            assertEquals(1, grid.publish(0, 0, 10, "update"));
+            assertEquals("update", client.received.poll(5, TimeUnit.SECONDS));
+            assertNull(far.received.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            far.disconnect();
+            farReceiver.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private UUID connect() throws Exception {
+        listener = start(server::listen);
+        assertTrue(server.started.await(5, TimeUnit.SECONDS));
+        receiver = start(client::connect);
+        assertTrue(client.connected.await(5, TimeUnit.SECONDS));
+        UUID clientId = server.connected.poll(5, TimeUnit.SECONDS);
+        assertNotNull(clientId, "The connect ping did not open a session");
+        return clientId;
+    }
+
+    private List<String> send(int count) throws ClientException {
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String message = "message " + i;
+            sent.add(message);
+            client.send(message);
+        }
+        return sent;
+    }
+
+    private List<String> receive(int count) throws InterruptedException {
+        List<String> received = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String message = server.received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message, "Only " + i + " of " + count + " messages arrived");
+            received.add(message);
+        }
+        return received;
+    }
+
+    private static void awaitShaped(TrafficShaper shaper, int messages) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (shaper.getPassed() + shaper.getDropped() + shaper.getDisconnected() < messages && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static Thread start(Blocking blocking) {
+        Thread thread = new Thread(() -> {
+            try {
+                blocking.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private interface Blocking {
+
+        void run() throws Exception;
+
+    }
+
+    private static class CollectingServer extends UDPServer<String, String> {
+
+        private final int port;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final BlockingQueue<UUID> connected = new LinkedBlockingQueue<>();
+        private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        private final BlockingQueue<UUID> ended = new LinkedBlockingQueue<>();
+        private final List<UUID> senders = new ArrayList<>();
+
+        private CollectingServer(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public MessageIO<String, String> getMessageIO(UUID clientId) {
+            return new StringMessageIO();
+        }
+
+        @Override
+        public void onServerStart() {
+            started.countDown();
+        }
+
+        @Override
+        public void onClientConnect(UUID clientId, Particle particle) {
+            connected.add(clientId);
+        }
+
+        @Override
+        public void onMessage(UUID clientId, String message, Particle particle) {
+            senders.add(clientId);
+            received.add(message);
+        }
+
+        @Override
+        public void onClientDisconnect(UUID clientId, Particle particle) {}
+
+        @Override
+        public void onClientConnectionEnd(UUID clientId, Client<String, String> disconnectedClient) {
+            ended.add(clientId);
+        }
+
+        @Override
+        public void onServerStop() {}
+
+    }
+
+    private static class StringClient extends UDPClient<String, String> {
+
+        private final int port;
+        private final CountDownLatch connected = new CountDownLatch(1);
+        private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+        private StringClient(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public String getHost() {
+            return "localhost";
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public @NotNull List<Task> getRepeatedTasks() {
+            return List.of();
+        }
+
+        @Override
+        public @NotNull MessageIO<String, String> getMessageIO() {
+            return new StringMessageIO();
+        }
+
+        @Override
+        public void onConnect(Particle particle) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onMessage(String message, Particle particle) {
+            received.add(message);
+        }
+
+        @Override
+        public void onDisconnect() {}
+
+    }
+
+}